@@ -1,15 +1,30 @@
 import javax.swing.*;
+import javax.swing.Timer;
 import javax.swing.border.EmptyBorder;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.table.AbstractTableModel;
 import java.awt.*;
+import java.awt.datatransfer.StringSelection;
 import java.awt.event.ActionEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
-import java.security.DigestInputStream;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.*;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -18,9 +33,29 @@ import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+import java.util.stream.IntStream;
 
 /**
  * File Search Indexer - Java (Swing + SQLite)
@@ -30,12 +65,18 @@ import java.util.concurrent.TimeUnit;
  * - SQLite index (index.db) with efficient search, filters (name/extension, size, date), sorting, pagination
  * - GUI (Swing): choose folder, scan, search with filters, sort, page controls
  * - "Recently added" quick filter
- * - "Duplicate finder" (by size + hash; hash computed only if enabled during scan)
+ * - "Duplicate finder" (by size + hash; hash computed only if enabled during scan, and only for same-size files)
  * - Robust error handling and non-blocking background tasks
  */
 public class FileSearchIndexer extends JFrame {
     // ===== Utilities =====
     static final String DB_URL = "jdbc:sqlite:index.db";
+    /** Machine-readable metrics of the last scan, rewritten after every scan from the GUI. */
+    static final String METRICS_FILE = System.getProperty("indexer.metricsFile", "scan-metrics.json");
+    /** Memory-mapped copy of the index for the in-memory engine, rewritten after every scan from the GUI. */
+    static final String SNAPSHOT_FILE = System.getProperty("indexer.snapshot", "index.snap");
+    /** Quiet time after the last commit before a stale in-memory index is reloaded, so watcher batches coalesce. */
+    static final int MEMORY_RELOAD_QUIET_MS = 2000;
     static final SimpleDateFormat UI_DATE = new SimpleDateFormat("yyyy-MM-dd");
     static final DateTimeFormatter DT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
@@ -48,6 +89,8 @@ public class FileSearchIndexer extends JFrame {
         long size;
         long lastModified; // epoch millis
         long indexedAt; // epoch millis
+        long scanGen; // epoch of the scan that last saw this file
+        String fileKey; // BasicFileAttributes.fileKey() (device + inode on Unix), null where unsupported
         String sha256; // optional
 
         public Object[] toTableRow() {
@@ -63,234 +106,3208 @@ public class FileSearchIndexer extends JFrame {
         }
     }
 
+    /** Normalized search criteria shared by the SQL path and the GUI; null fields are not filtered on. */
+    static final class SearchFilter {
+        static final Set<String> SORT_COLUMNS = new HashSet<>(Arrays.asList("name", "extension", "size", "last_modified", "indexed_at"));
+
+        final String name;
+        final Set<String> exts; // any of these extensions matches; sorted, null for all
+        final Long minSize, maxSize;
+        final Long minDate, maxDate;
+        final String orderBy;
+        final boolean desc;
+
+        SearchFilter(String name, String ext, Long minSize, Long maxSize, Long minDate, Long maxDate, String orderBy, boolean desc) {
+            this.name = emptyToNull(name);
+            this.exts = parseExts(ext);
+            this.minSize = minSize; this.maxSize = maxSize;
+            this.minDate = minDate; this.maxDate = maxDate;
+            this.orderBy = orderBy == null || orderBy.isEmpty() ? "name" : orderBy;
+            // spliced into SQL, so only known columns are accepted
+            if (!SORT_COLUMNS.contains(this.orderBy)) throw new IllegalArgumentException("Unsupported sort column: " + orderBy);
+            this.desc = desc;
+        }
+
+        // "jpg, png .HEIC" -> [heic, jpg, png]; extensions are separated by commas, semicolons or spaces
+        private static Set<String> parseExts(String list) {
+            if (list == null) return null;
+            Set<String> out = new TreeSet<>();
+            for (String part : list.split("[,;\\s]+")) {
+                String e = normalizeExt(part);
+                if (e != null) out.add(e);
+            }
+            return out.isEmpty() ? null : Collections.unmodifiableSet(out);
+        }
+
+        // Equal filters select the same rows in the same order; result caches key on this
+        @Override public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof SearchFilter)) return false;
+            SearchFilter f = (SearchFilter) o;
+            return desc == f.desc && orderBy.equals(f.orderBy) && Objects.equals(name, f.name) && Objects.equals(exts, f.exts) &&
+                    Objects.equals(minSize, f.minSize) && Objects.equals(maxSize, f.maxSize) &&
+                    Objects.equals(minDate, f.minDate) && Objects.equals(maxDate, f.maxDate);
+        }
+
+        @Override public int hashCode() {
+            return Objects.hash(name, exts, minSize, maxSize, minDate, maxDate, orderBy, desc);
+        }
+    }
+
+    /** Paged search over the index; implemented by the SQLite {@link Database} and the {@link MemoryIndex}. */
+    interface SearchIndex {
+        Database.Page search(SearchFilter f, int limit, Database.Cursor after) throws SQLException;
+
+        Database.Page searchAt(SearchFilter f, int limit, long offset) throws SQLException;
+
+        long count(SearchFilter f) throws SQLException;
+
+        /** Number of matches, exact when that is cheap to get and estimated otherwise. */
+        Database.Count estimateCount(SearchFilter f) throws SQLException;
+    }
+
     // ===== Persistence Layer =====
-    static class Database implements AutoCloseable {
+    static class Database implements AutoCloseable, SearchIndex {
+        static final int STATEMENT_CACHE_SIZE = 32;
+        static final long EXACT_COUNT_LIMIT = 100_000; // matches an estimateCount counts before it samples instead
+        static final int SAMPLE_WINDOWS = 64;
+        static final long SAMPLE_IDS = 1 << 16;
+        private static final Set<String> schemaReady = new HashSet<>(); // JDBC urls already set up, guarded by Database.class
+        static final AtomicLong COMMITS = new AtomicLong(); // see commits(); tests bump it to stand in for a commit
+
+        private final String url;
         private final Connection conn;
+        private final boolean hasNameIndex; // files_fts exists in this database (needs FTS5 in the driver)
+        private final boolean reader;
+        private volatile Statement running; // last statement handed out by prepared()
+        private volatile Thread runner; // thread that running was handed to
+        private final Map<String, Long> dirIds = new HashMap<>(); // writer-side cache of directories.id
+        // Prepared statements keyed by SQL text, i.e. by query shape; least recently used is closed first
+        private final Map<String, PreparedStatement> statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= STATEMENT_CACHE_SIZE) return false;
+                try { eldest.getValue().close(); } catch (SQLException ignored) {}
+                return true;
+            }
+        };
+
+        Database() throws SQLException {
+            this(DB_URL, false);
+        }
+
+        /** Opens a writer on another database file than {@code index.db}, e.g. a synthetic benchmark index. */
+        Database(String url) throws SQLException {
+            this(url, false);
+        }
+
+        private Database(String url, boolean reader) throws SQLException {
+            this.url = url;
+            this.reader = reader;
+            conn = DriverManager.getConnection(url);
+            try (Statement st = conn.createStatement()) {
+                st.execute("PRAGMA journal_mode=WAL"); // cannot be changed inside a transaction
+                st.execute("PRAGMA synchronous=NORMAL");
+                if (reader) {
+                    st.execute("PRAGMA cache_size=-65536"); // 64 MB
+                    st.execute("PRAGMA mmap_size=268435456");
+                    st.execute("PRAGMA temp_store=MEMORY");
+                }
+            }
+            conn.setAutoCommit(false);
+            init();
+            try (Statement st = conn.createStatement();
+                 ResultSet rs = st.executeQuery("SELECT 1 FROM sqlite_master WHERE name='files_fts'")) {
+                hasNameIndex = rs.next();
+            }
+            if (reader) {
+                // A reader must not hold a transaction open: it would pin its WAL snapshot and block checkpoints
+                conn.setAutoCommit(true);
+                try (Statement st = conn.createStatement()) { st.execute("PRAGMA query_only=1"); }
+            }
+        }
+
+        /**
+         * Opens a long-lived, read-only connection for the GUI. Query methods on it are synchronized
+         * and reuse cached prepared statements, so callers can share one instance across threads.
+         */
+        static Database openReader() throws SQLException {
+            return openReader(DB_URL);
+        }
+
+        static Database openReader(String url) throws SQLException {
+            return new Database(url, true);
+        }
+
+        private void init() throws SQLException {
+            synchronized (Database.class) {
+                if (schemaReady.contains(url)) return;
+                createSchema();
+                schemaReady.add(url);
+            }
+        }
+
+        private void createSchema() throws SQLException {
+            boolean migrated = false;
+            try (Statement st = conn.createStatement()) {
+                st.execute("CREATE TABLE IF NOT EXISTS directories (\n" +
+                        "  id INTEGER PRIMARY KEY,\n" +
+                        "  path TEXT UNIQUE\n" + // absolute, with trailing separator
+                        ")");
+                if (hasColumn(st, "files", "path")) {
+                    migrateFlatPaths(st);
+                    migrated = true;
+                }
+                st.execute(filesDdl("files"));
+                st.execute("CREATE INDEX IF NOT EXISTS idx_files_name ON files(name)");
+                st.execute("CREATE INDEX IF NOT EXISTS idx_files_ext ON files(extension)");
+                st.execute("CREATE INDEX IF NOT EXISTS idx_files_size ON files(size)");
+                st.execute("CREATE INDEX IF NOT EXISTS idx_files_lastmod ON files(last_modified)");
+                st.execute("CREATE INDEX IF NOT EXISTS idx_files_indexed ON files(indexed_at)");
+                st.execute("CREATE INDEX IF NOT EXISTS idx_files_sha ON files(sha256)");
+                st.execute("CREATE INDEX IF NOT EXISTS idx_files_size_partial ON files(size, partial_hash)");
+                st.execute("CREATE INDEX IF NOT EXISTS idx_files_key ON files(file_key)");
+                st.execute("CREATE INDEX IF NOT EXISTS idx_files_gen ON files(scan_gen)");
+                initNameIndex(st);
+                initDupGroups(st, migrated);
+                // generation: bumped by every committed write, so copies of the index can tell they are stale
+                st.execute("CREATE TABLE IF NOT EXISTS meta (key TEXT PRIMARY KEY, value INTEGER NOT NULL)");
+                st.execute("INSERT OR IGNORE INTO meta(key, value) VALUES ('generation', 0)");
+            }
+            conn.commit();
+            if (migrated) {
+                // Give the space freed by the old layout back to the file system
+                conn.setAutoCommit(true);
+                try (Statement st = conn.createStatement()) {
+                    st.execute("VACUUM");
+                } finally {
+                    conn.setAutoCommit(false);
+                }
+            }
+        }
+
+        /**
+         * Files are stored as (dir_id, name) against a shared {@code directories} table instead of a full
+         * path each, and hashes as raw 32-byte BLOBs instead of 64-char hex.
+         */
+        private static String filesDdl(String table) {
+            return "CREATE TABLE IF NOT EXISTS " + table + " (\n" +
+                    "  id INTEGER PRIMARY KEY,\n" +
+                    "  dir_id INTEGER NOT NULL REFERENCES directories(id),\n" +
+                    "  name TEXT,\n" +
+                    "  extension TEXT,\n" +
+                    "  size INTEGER,\n" +
+                    "  last_modified INTEGER,\n" +
+                    "  indexed_at INTEGER,\n" +
+                    "  sha256 BLOB,\n" +
+                    "  scan_gen INTEGER DEFAULT 0,\n" +
+                    "  partial_hash BLOB,\n" +
+                    "  file_key TEXT,\n" +
+                    "  UNIQUE(dir_id, name)\n" +
+                    ")";
+        }
+
+        /** Converts an index.db with a flat {@code files.path} column and hex hashes to the compact layout. */
+        private void migrateFlatPaths(Statement st) throws SQLException {
+            // Columns added by intermediate versions, so the copy below can rely on them
+            addColumnIfMissing(st, "files", "scan_gen", "INTEGER DEFAULT 0");
+            addColumnIfMissing(st, "files", "partial_hash", "TEXT");
+            addColumnIfMissing(st, "files", "file_key", "TEXT");
+            // The name index is rebuilt against the new table afterwards
+            st.execute("DROP TRIGGER IF EXISTS files_fts_ai");
+            st.execute("DROP TRIGGER IF EXISTS files_fts_ad");
+            st.execute("DROP TRIGGER IF EXISTS files_fts_au");
+            st.execute("DROP TABLE IF EXISTS files_fts");
+            String dirOf = "substr(f.path, 1, length(f.path) - length(f.name))";
+            st.execute("INSERT OR IGNORE INTO directories(path) SELECT DISTINCT " + dirOf + " FROM files f");
+            st.execute(filesDdl("files_v2"));
+            st.execute("INSERT INTO files_v2(id,dir_id,name,extension,size,last_modified,indexed_at,scan_gen,file_key)\n" +
+                    " SELECT f.id, d.id, f.name, f.extension, f.size, f.last_modified, f.indexed_at, f.scan_gen, f.file_key\n" +
+                    " FROM files f JOIN directories d ON d.path = " + dirOf);
+            // Only duplicate candidates carry hashes, so converting them in Java is cheap
+            try (Statement q = conn.createStatement();
+                 ResultSet rs = q.executeQuery("SELECT id, sha256, partial_hash FROM files WHERE sha256 IS NOT NULL OR partial_hash IS NOT NULL");
+                 PreparedStatement ps = conn.prepareStatement("UPDATE files_v2 SET sha256=?, partial_hash=? WHERE id=?")) {
+                while (rs.next()) {
+                    setHash(ps, 1, rs.getString(2));
+                    setHash(ps, 2, rs.getString(3));
+                    ps.setLong(3, rs.getLong(1));
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+            st.execute("DROP TABLE files");
+            st.execute("ALTER TABLE files_v2 RENAME TO files");
+        }
+
+        private static boolean hasColumn(Statement st, String table, String column) throws SQLException {
+            try (ResultSet rs = st.executeQuery("PRAGMA table_info(" + table + ")")) {
+                while (rs.next()) {
+                    if (column.equalsIgnoreCase(rs.getString("name"))) return true;
+                }
+            }
+            return false;
+        }
+
+        private static void setHash(PreparedStatement ps, int index, String hex) throws SQLException {
+            if (hex == null) ps.setNull(index, Types.BLOB);
+            else ps.setBytes(index, HashEngine.fromHex(hex));
+        }
+
+        private static String getHash(ResultSet rs, int index) throws SQLException {
+            byte[] b = rs.getBytes(index);
+            return b == null ? null : HashEngine.toHex(b);
+        }
+
+        /**
+         * Substring index over file names: an external-content FTS5 table with the trigram tokenizer,
+         * kept in sync with {@code files} by triggers. Not created when the SQLite build lacks FTS5
+         * or trigram support, in which case search falls back to LIKE.
+         */
+        private static void initNameIndex(Statement st) throws SQLException {
+            boolean existed;
+            try (ResultSet rs = st.executeQuery("SELECT 1 FROM sqlite_master WHERE name='files_fts'")) {
+                existed = rs.next();
+            }
+            if (!existed) {
+                try {
+                    st.execute("CREATE VIRTUAL TABLE files_fts USING fts5(name, content='files', content_rowid='id', tokenize='trigram')");
+                } catch (SQLException e) {
+                    return; // no FTS5 in this driver: name searches fall back to LIKE
+                }
+            }
+            st.execute("CREATE TRIGGER IF NOT EXISTS files_fts_ai AFTER INSERT ON files BEGIN\n" +
+                    "  INSERT INTO files_fts(rowid, name) VALUES (new.id, new.name);\n" +
+                    "END");
+            st.execute("CREATE TRIGGER IF NOT EXISTS files_fts_ad AFTER DELETE ON files BEGIN\n" +
+                    "  INSERT INTO files_fts(files_fts, rowid, name) VALUES ('delete', old.id, old.name);\n" +
+                    "END");
+            // Upserts rewrite name on every conflict; only touch the index when it actually changed
+            st.execute("CREATE TRIGGER IF NOT EXISTS files_fts_au AFTER UPDATE OF name ON files WHEN old.name IS NOT new.name BEGIN\n" +
+                    "  INSERT INTO files_fts(files_fts, rowid, name) VALUES ('delete', old.id, old.name);\n" +
+                    "  INSERT INTO files_fts(rowid, name) VALUES (new.id, new.name);\n" +
+                    "END");
+            if (!existed) st.execute("INSERT INTO files_fts(files_fts) VALUES ('rebuild')");
+        }
+
+        /**
+         * Materialized duplicate groups: one row per (sha256, size) with its file count and the bytes that
+         * all copies but one waste. Triggers on {@code files} keep it current as hashes, sizes and rows
+         * change, so the duplicate view never has to group the whole table. Singleton groups are kept
+         * (the next matching file turns them into duplicates); only count > 1 is shown.
+         */
+        private static void initDupGroups(Statement st, boolean rebuild) throws SQLException {
+            boolean existed;
+            try (ResultSet rs = st.executeQuery("SELECT 1 FROM sqlite_master WHERE name='dup_groups'")) {
+                existed = rs.next();
+            }
+            st.execute("CREATE TABLE IF NOT EXISTS dup_groups (\n" +
+                    "  sha256 BLOB NOT NULL,\n" +
+                    "  size INTEGER NOT NULL,\n" +
+                    "  count INTEGER NOT NULL,\n" +
+                    "  wasted INTEGER NOT NULL,\n" +
+                    "  PRIMARY KEY (sha256, size)\n" +
+                    ")");
+            st.execute("CREATE INDEX IF NOT EXISTS idx_dup_groups_wasted ON dup_groups(wasted)");
+            // In the ON CONFLICT branch count is still the old value, so count * size == (new count - 1) * size
+            String add = "INSERT INTO dup_groups(sha256, size, count, wasted) SELECT new.sha256, new.size, 1, 0 WHERE new.sha256 IS NOT NULL\n" +
+                    "   ON CONFLICT(sha256, size) DO UPDATE SET count = count + 1, wasted = count * size;\n";
+            String remove = "  UPDATE dup_groups SET count = count - 1, wasted = (count - 2) * size WHERE sha256 = old.sha256 AND size = old.size;\n" +
+                    "  DELETE FROM dup_groups WHERE sha256 = old.sha256 AND size = old.size AND count <= 0;\n";
+            st.execute("CREATE TRIGGER IF NOT EXISTS dup_groups_ai AFTER INSERT ON files WHEN new.sha256 IS NOT NULL BEGIN\n  " +
+                    add + "END");
+            st.execute("CREATE TRIGGER IF NOT EXISTS dup_groups_ad AFTER DELETE ON files WHEN old.sha256 IS NOT NULL BEGIN\n" +
+                    remove + "END");
+            st.execute("CREATE TRIGGER IF NOT EXISTS dup_groups_au AFTER UPDATE OF sha256, size ON files\n" +
+                    " WHEN old.sha256 IS NOT new.sha256 OR old.size IS NOT new.size BEGIN\n" +
+                    remove + "  " + add + "END");
+            if (!existed || rebuild) {
+                st.execute("DELETE FROM dup_groups");
+                st.execute("INSERT INTO dup_groups(sha256, size, count, wasted)\n" +
+                        " SELECT sha256, size, COUNT(*), (COUNT(*) - 1) * size FROM files WHERE sha256 IS NOT NULL GROUP BY sha256, size");
+            }
+        }
+
+        // Upgrades index.db files created by older versions in place
+        private static void addColumnIfMissing(Statement st, String table, String column, String type) throws SQLException {
+            if (!hasColumn(st, table, column)) st.execute("ALTER TABLE " + table + " ADD COLUMN " + column + " " + type);
+        }
+
+        // Stored hashes stay valid only while file identity, size and mtime are unchanged; otherwise they
+        // are dropped. A missing key on either side (old rows, filesystems without one) does not count as a change.
+        private static final String SAME_CONTENT = "files.size=excluded.size AND files.last_modified=excluded.last_modified" +
+                " AND COALESCE(files.file_key=excluded.file_key, 1)";
+
+        static final String UPSERT_SQL = "INSERT INTO files(dir_id,name,extension,size,last_modified,indexed_at,sha256,scan_gen,file_key)\n" +
+                "VALUES(?,?,?,?,?,?,?,?,?)\n" +
+                "ON CONFLICT(dir_id, name) DO UPDATE SET name=excluded.name, extension=excluded.extension, size=excluded.size,\n" +
+                " last_modified=excluded.last_modified, indexed_at=excluded.indexed_at,\n" +
+                " sha256=CASE WHEN excluded.sha256 IS NOT NULL THEN excluded.sha256 WHEN " + SAME_CONTENT + " THEN files.sha256 END,\n" +
+                " partial_hash=CASE WHEN " + SAME_CONTENT + " THEN files.partial_hash END,\n" +
+                " scan_gen=excluded.scan_gen, file_key=excluded.file_key";
+
+        public void upsert(FileRecord r) throws SQLException {
+            try (PreparedStatement ps = conn.prepareStatement(UPSERT_SQL)) {
+                bindUpsert(ps, r);
+                ps.executeUpdate();
+            }
+        }
+
+        /** Opens a batch that reuses one prepared upsert statement; caller must be the only writer on this connection. */
+        public UpsertBatch upsertBatch() throws SQLException {
+            return new UpsertBatch(conn.prepareStatement(UPSERT_SQL));
+        }
+
+        private void bindUpsert(PreparedStatement ps, FileRecord r) throws SQLException {
+            ps.setLong(1, dirId(r.path.substring(0, r.path.length() - r.name.length())));
+            ps.setString(2, r.name);
+            ps.setString(3, r.extension);
+            ps.setLong(4, r.size);
+            ps.setLong(5, r.lastModified);
+            ps.setLong(6, r.indexedAt);
+            setHash(ps, 7, r.sha256);
+            ps.setLong(8, r.scanGen);
+            if (r.fileKey == null) ps.setNull(9, Types.VARCHAR);
+            else ps.setString(9, r.fileKey);
+        }
+
+        /** Id of a directory row (path with trailing separator), created on first use. Writer-side only. */
+        private long dirId(String dir) throws SQLException {
+            Long id = dirIds.get(dir);
+            if (id != null) return id;
+            PreparedStatement ins = prepared("INSERT OR IGNORE INTO directories(path) VALUES(?)");
+            ins.setString(1, dir);
+            ins.executeUpdate();
+            PreparedStatement sel = prepared("SELECT id FROM directories WHERE path = ?");
+            sel.setString(1, dir);
+            try (ResultSet rs = sel.executeQuery()) {
+                rs.next();
+                id = rs.getLong(1);
+            }
+            dirIds.put(dir, id);
+            return id;
+        }
+
+        class UpsertBatch implements AutoCloseable {
+            private final PreparedStatement ps;
+            private int pending = 0;
+
+            private UpsertBatch(PreparedStatement ps) { this.ps = ps; }
+
+            void add(FileRecord r) throws SQLException {
+                bindUpsert(ps, r);
+                ps.addBatch();
+                pending++;
+            }
+
+            int pending() { return pending; }
+
+            /** Executes queued rows and commits them as one transaction. */
+            void flush() throws SQLException {
+                if (pending == 0) return;
+                ps.executeBatch();
+                commitWrite();
+                pending = 0;
+            }
+
+            @Override public void close() throws SQLException {
+                try { flush(); } finally { ps.close(); }
+            }
+        }
+
+        /** Last indexed size/mtime/identity of a path, used to skip unchanged files on rescans. */
+        static class FileState {
+            final long id;
+            final long size;
+            final long lastModified;
+            final String fileKey;
+
+            FileState(long id, long size, long lastModified, String fileKey) {
+                this.id = id; this.size = size; this.lastModified = lastModified; this.fileKey = fileKey;
+            }
+        }
+
+        /** Loads the indexed state of every path below {@code dirPrefix} (which must end with a separator). */
+        public Map<String, FileState> statesUnder(String dirPrefix) throws SQLException {
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "SELECT f.id, d.path || f.name, f.size, f.last_modified, f.file_key" +
+                    " FROM directories d JOIN files f ON f.dir_id = d.id WHERE d.path >= ? AND d.path < ?")) {
+                ps.setString(1, dirPrefix);
+                ps.setString(2, prefixUpperBound(dirPrefix));
+                ResultSet rs = ps.executeQuery();
+                Map<String, FileState> map = new HashMap<>();
+                while (rs.next()) {
+                    map.put(rs.getString(2), new FileState(rs.getLong(1), rs.getLong(3), rs.getLong(4), rs.getString(5)));
+                }
+                return map;
+            }
+        }
+
+        /**
+         * Deletes rows below {@code dirPrefix} that the scan with epoch {@code scanGen} did not see.
+         * Rows skipped as unchanged keep their old epoch, so their ids are passed in {@code unchangedIds}
+         * and excluded via a temp table rather than rewriting every one of them.
+         */
+        public int purgeUnseen(String dirPrefix, long scanGen, long[] unchangedIds, int unchangedCount) throws SQLException {
+            try (Statement st = conn.createStatement()) {
+                st.execute("PRAGMA temp_store=MEMORY");
+                st.execute("CREATE TEMP TABLE IF NOT EXISTS scan_seen (id INTEGER PRIMARY KEY)");
+                st.execute("DELETE FROM scan_seen");
+            }
+            try (PreparedStatement ps = conn.prepareStatement("INSERT OR IGNORE INTO scan_seen(id) VALUES(?)")) {
+                for (int i = 0; i < unchangedCount; i++) {
+                    ps.setLong(1, unchangedIds[i]);
+                    ps.addBatch();
+                    if (i % 10_000 == 9_999) ps.executeBatch();
+                }
+                ps.executeBatch();
+            }
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "DELETE FROM files WHERE dir_id IN (SELECT id FROM directories WHERE path >= ? AND path < ?)" +
+                    " AND scan_gen < ? AND id NOT IN (SELECT id FROM scan_seen)")) {
+                ps.setString(1, dirPrefix);
+                ps.setString(2, prefixUpperBound(dirPrefix));
+                ps.setLong(3, scanGen);
+                int n = ps.executeUpdate();
+                try (Statement st = conn.createStatement()) { st.execute("DELETE FROM scan_seen"); }
+                deleteEmptyDirectories(dirPrefix);
+                commitWrite();
+                return n;
+            }
+        }
+
+        /** Removes each path and, for paths that were directories, every row below it. */
+        public int deletePaths(Collection<String> paths) throws SQLException {
+            int n = 0;
+            try (PreparedStatement exact = conn.prepareStatement(
+                         "DELETE FROM files WHERE dir_id = (SELECT id FROM directories WHERE path = ?) AND name = ?");
+                 PreparedStatement under = conn.prepareStatement(
+                         "DELETE FROM files WHERE dir_id IN (SELECT id FROM directories WHERE path >= ? AND path < ?)")) {
+                for (String p : paths) {
+                    int cut = p.lastIndexOf(File.separatorChar) + 1;
+                    exact.setString(1, p.substring(0, cut));
+                    exact.setString(2, p.substring(cut));
+                    exact.addBatch();
+                    String prefix = p.endsWith(File.separator) ? p : p + File.separator;
+                    under.setString(1, prefix);
+                    under.setString(2, prefixUpperBound(prefix));
+                    under.addBatch();
+                }
+                for (int c : exact.executeBatch()) n += Math.max(c, 0);
+                for (int c : under.executeBatch()) n += Math.max(c, 0);
+            }
+            for (String p : paths) deleteEmptyDirectories(p.endsWith(File.separator) ? p : p + File.separator);
+            commitWrite();
+            return n;
+        }
+
+        private void deleteEmptyDirectories(String dirPrefix) throws SQLException {
+            try (PreparedStatement ps = conn.prepareStatement("DELETE FROM directories WHERE path >= ? AND path < ?" +
+                    " AND NOT EXISTS (SELECT 1 FROM files WHERE dir_id = directories.id)")) {
+                ps.setString(1, dirPrefix);
+                ps.setString(2, prefixUpperBound(dirPrefix));
+                ps.executeUpdate();
+            }
+            dirIds.clear();
+        }
+
+        /**
+         * Copies hashes onto rows written with epoch {@code scanGen} that have none, from another row with
+         * the same file key, size and mtime: a file that was moved or renamed (or a hard link) keeps its
+         * hash. Must run before the old rows are purged.
+         */
+        public int inheritHashes(long scanGen) throws SQLException {
+            String donor = "FROM files o WHERE o.file_key = files.file_key AND o.size = files.size" +
+                    " AND o.last_modified = files.last_modified AND o.id != files.id";
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "UPDATE files SET sha256 = (SELECT o.sha256 " + donor + " AND o.sha256 IS NOT NULL LIMIT 1),\n" +
+                    " partial_hash = COALESCE(partial_hash, (SELECT o.partial_hash " + donor + " AND o.partial_hash IS NOT NULL LIMIT 1))\n" +
+                    " WHERE scan_gen = ? AND sha256 IS NULL AND file_key IS NOT NULL\n" +
+                    " AND EXISTS (SELECT 1 " + donor + " AND (o.sha256 IS NOT NULL OR o.partial_hash IS NOT NULL))")) {
+                ps.setLong(1, scanGen);
+                int n = ps.executeUpdate();
+                commitWrite();
+                return n;
+            }
+        }
+
+        /** A row whose content needs (partial or full) hashing for duplicate detection. */
+        static class HashCandidate {
+            final long id;
+            final String path;
+            final long size;
+            String partialHash;
+            String sha256;
+
+            HashCandidate(long id, String path, long size) { this.id = id; this.path = path; this.size = size; }
+        }
+
+        /** Stage 2 input: rows without a partial hash whose size is shared with at least one other row. */
+        public List<HashCandidate> partialHashCandidates() throws SQLException {
+            return partialHashCandidates(null);
+        }
+
+        /** As {@link #partialHashCandidates()}, but only files of the given sizes; null means all sizes. */
+        public List<HashCandidate> partialHashCandidates(Collection<Long> sizes) throws SQLException {
+            List<HashCandidate> list = new ArrayList<>();
+            for (List<Long> part : sizeBatches(sizes)) {
+                list.addAll(hashCandidates("SELECT f.id, d.path || f.name, f.size FROM files f JOIN directories d ON d.id = f.dir_id\n" +
+                        " WHERE f.partial_hash IS NULL" + sizeIn("f.size", part) + " AND f.size IN\n" +
+                        " (SELECT size FROM files WHERE 1=1" + sizeIn("size", part) + " GROUP BY size HAVING COUNT(*) > 1)", part));
+            }
+            return list;
+        }
+
+        /** Stage 3 input: rows without a full hash whose (size, partial hash) is shared with another row. */
+        public List<HashCandidate> fullHashCandidates() throws SQLException {
+            return fullHashCandidates(null);
+        }
+
+        /** As {@link #fullHashCandidates()}, but only files of the given sizes; null means all sizes. */
+        public List<HashCandidate> fullHashCandidates(Collection<Long> sizes) throws SQLException {
+            List<HashCandidate> list = new ArrayList<>();
+            for (List<Long> part : sizeBatches(sizes)) {
+                list.addAll(hashCandidates("SELECT f.id, d.path || f.name, f.size FROM files f JOIN directories d ON d.id = f.dir_id\n" +
+                        " WHERE f.sha256 IS NULL" + sizeIn("f.size", part) + " AND (f.size, f.partial_hash) IN\n" +
+                        " (SELECT size, partial_hash FROM files WHERE partial_hash IS NOT NULL" + sizeIn("size", part) +
+                        " GROUP BY size, partial_hash HAVING COUNT(*) > 1)", part));
+            }
+            return list;
+        }
+
+        /** Distinct sizes of the rows written at or after {@code scanGen}, i.e. by one batch of live changes. */
+        public Set<Long> sizesWrittenSince(long scanGen) throws SQLException {
+            Set<Long> sizes = new HashSet<>();
+            try (PreparedStatement ps = conn.prepareStatement("SELECT DISTINCT size FROM files WHERE scan_gen >= ?")) {
+                ps.setLong(1, scanGen);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) sizes.add(rs.getLong(1));
+                }
+            }
+            return sizes;
+        }
+
+        // Sizes in batches that keep both IN lists of a candidate query under SQLite's 999 parameters;
+        // a single null batch stands for "all sizes"
+        private static List<List<Long>> sizeBatches(Collection<Long> sizes) {
+            if (sizes == null) return Collections.singletonList(null);
+            List<Long> all = new ArrayList<>(new TreeSet<>(sizes));
+            List<List<Long>> batches = new ArrayList<>();
+            for (int from = 0; from < all.size(); from += 400) batches.add(all.subList(from, Math.min(all.size(), from + 400)));
+            return batches;
+        }
+
+        private static String sizeIn(String column, List<Long> sizes) {
+            if (sizes == null) return "";
+            return " AND " + column + " IN (" + String.join(",", Collections.nCopies(sizes.size(), "?")) + ")";
+        }
+
+        // sizes, when given, are bound twice: once for the outer IN list and once for the grouped subquery
+        private List<HashCandidate> hashCandidates(String sql, List<Long> sizes) throws SQLException {
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                if (sizes != null) {
+                    for (int i = 0; i < sizes.size(); i++) {
+                        ps.setLong(i + 1, sizes.get(i));
+                        ps.setLong(sizes.size() + i + 1, sizes.get(i));
+                    }
+                }
+                try (ResultSet rs = ps.executeQuery()) {
+                    List<HashCandidate> list = new ArrayList<>();
+                    while (rs.next()) list.add(new HashCandidate(rs.getLong(1), rs.getString(2), rs.getLong(3)));
+                    return list;
+                }
+            }
+        }
+
+        /** Stores computed hashes; null values leave the existing column untouched. */
+        public void updateHashes(List<HashCandidate> hashed) throws SQLException {
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "UPDATE files SET partial_hash=COALESCE(?, partial_hash), sha256=COALESCE(?, sha256) WHERE id=?")) {
+                for (HashCandidate c : hashed) {
+                    setHash(ps, 1, c.partialHash);
+                    setHash(ps, 2, c.sha256);
+                    ps.setLong(3, c.id);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+            commitWrite();
+        }
+
+        // Smallest string greater than every string starting with prefix, so the range can use the path index
+        static String prefixUpperBound(String prefix) {
+            char last = prefix.charAt(prefix.length() - 1);
+            return prefix.substring(0, prefix.length() - 1) + (char) (last + 1);
+        }
+
+        // Columns in the order readRecord expects, with the path rebuilt from its directory
+        private static final String SELECT_RECORDS = "SELECT f.id, d.path || f.name, f.name, f.extension, f.size, f.last_modified," +
+                " f.indexed_at, f.sha256 FROM files f JOIN directories d ON d.id = f.dir_id";
+
+        /** Continuation token: the sort key and id of the last row of a page. */
+        static final class Cursor {
+            final Object key; // String or Long, depending on the sort column
+            final long id;
+
+            Cursor(Object key, long id) { this.key = key; this.id = id; }
+
+            @Override public boolean equals(Object o) {
+                return o instanceof Cursor && id == ((Cursor) o).id && Objects.equals(key, ((Cursor) o).key);
+            }
+
+            @Override public int hashCode() { return Objects.hashCode(key) * 31 + Long.hashCode(id); }
+        }
+
+        /** One page of search results; {@code next} is null on the last page. */
+        static final class Page {
+            final List<FileRecord> rows;
+            final Cursor next;
+
+            Page(List<FileRecord> rows, Cursor next) { this.rows = rows; this.next = next; }
+        }
+
+        /** A number of matching rows that is either exact or an estimate. */
+        static final class Count {
+            final long value;
+            final boolean exact;
+
+            Count(long value, boolean exact) { this.value = value; this.exact = exact; }
+
+            @Override public String toString() { return (exact ? "" : "≈") + String.format(Locale.US, "%,d", value); }
+        }
+
+        /**
+         * Keyset-paginated search ordered by the filter's sort column then id. Pass {@code after = null}
+         * for the first page and the returned {@link Page#next} for the following one, so every page
+         * costs one index seek regardless of depth.
+         */
+        public synchronized Page search(SearchFilter f, int limit, Cursor after) throws SQLException {
+            StringBuilder sb = new StringBuilder(SELECT_RECORDS);
+            List<Object> params = new ArrayList<>();
+            appendWhere(sb, params, f);
+            if (after != null) {
+                sb.append(" AND (f.").append(f.orderBy).append(", f.id) ").append(f.desc ? "<" : ">").append(" (?, ?)");
+                params.add(after.key);
+                params.add(after.id);
+            }
+            appendOrder(sb, f);
+            sb.append(" LIMIT ?");
+            params.add((long) limit + 1); // one extra row tells whether there is a next page
+            List<FileRecord> list = query(sb.toString(), params);
+            if (list.size() <= limit) return new Page(list, null);
+            list.remove(limit);
+            FileRecord last = list.get(limit - 1);
+            return new Page(list, new Cursor(sortKey(last, f.orderBy), last.id));
+        }
+
+        /**
+         * Positional variant of {@link #search} for random access (e.g. a scrollbar jump) when no
+         * cursor near {@code offset} is known. Costs O(offset); prefer the cursor form when possible.
+         */
+        public synchronized Page searchAt(SearchFilter f, int limit, long offset) throws SQLException {
+            StringBuilder sb = new StringBuilder(SELECT_RECORDS);
+            List<Object> params = new ArrayList<>();
+            appendWhere(sb, params, f);
+            appendOrder(sb, f);
+            sb.append(" LIMIT ? OFFSET ?");
+            params.add((long) limit + 1);
+            params.add(offset);
+            List<FileRecord> list = query(sb.toString(), params);
+            if (list.size() <= limit) return new Page(list, null);
+            list.remove(limit);
+            FileRecord last = list.get(limit - 1);
+            return new Page(list, new Cursor(sortKey(last, f.orderBy), last.id));
+        }
+
+        /** Number of rows matching the filter. */
+        public synchronized long count(SearchFilter f) throws SQLException {
+            StringBuilder sb = new StringBuilder("SELECT COUNT(*) FROM files f");
+            List<Object> params = new ArrayList<>();
+            appendWhere(sb, params, f);
+            return queryLong(sb.toString(), params);
+        }
+
+        /**
+         * Number of rows matching the filter. Exact when there are at most {@link #EXACT_COUNT_LIMIT}
+         * matches, found by a count that stops one row past the limit. Beyond that the query is
+         * unselective, so the count is extrapolated from {@link #SAMPLE_WINDOWS} evenly spread id
+         * windows, about {@link #SAMPLE_IDS} ids in total. Those are read by rowid, with the filter's
+         * own indexes disabled so that they cannot drive the plan, and a trigram name lookup is asked
+         * for the same windows only.
+         */
+        public synchronized Count estimateCount(SearchFilter f) throws SQLException {
+            StringBuilder sb = new StringBuilder("SELECT COUNT(*) FROM (SELECT 1 FROM files f");
+            List<Object> params = new ArrayList<>();
+            appendWhere(sb, params, f);
+            sb.append(" LIMIT ?)");
+            params.add(EXACT_COUNT_LIMIT + 1);
+            long bounded = queryLong(sb.toString(), params);
+            if (bounded <= EXACT_COUNT_LIMIT) return new Count(bounded, true);
+
+            long minId, maxId;
+            try (ResultSet rs = prepared("SELECT MIN(id), MAX(id) FROM files").executeQuery()) {
+                rs.next();
+                minId = rs.getLong(1);
+                maxId = rs.getLong(2);
+            }
+            long span = maxId - minId + 1;
+            long width = Math.max(1, SAMPLE_IDS / SAMPLE_WINDOWS);
+            if (span <= width * SAMPLE_WINDOWS) return new Count(count(f), true); // the sample would be the table
+            long[] windows = new long[2 * SAMPLE_WINDOWS];
+            for (int w = 0; w < SAMPLE_WINDOWS; w++) {
+                windows[2 * w] = minId + span / SAMPLE_WINDOWS * w;
+                windows[2 * w + 1] = windows[2 * w] + width - 1;
+            }
+            sb = new StringBuilder("SELECT COUNT(*) FROM files f");
+            params = new ArrayList<>();
+            appendWhere(sb, params, f, "+f.", windows); // unary + keeps these columns' indexes out of the plan
+            sb.append(" AND (");
+            for (int w = 0; w < SAMPLE_WINDOWS; w++) {
+                sb.append(w == 0 ? "" : " OR ").append("f.id BETWEEN ? AND ?");
+                params.add(windows[2 * w]);
+                params.add(windows[2 * w + 1]);
+            }
+            sb.append(")");
+            long sampled = queryLong(sb.toString(), params);
+            long estimate = Math.round((double) sampled * span / (width * SAMPLE_WINDOWS));
+            return new Count(Math.max(estimate, EXACT_COUNT_LIMIT + 1), false); // more than the limit is known
+        }
+
+        private long queryLong(String sql, List<Object> params) throws SQLException {
+            PreparedStatement ps = prepared(sql);
+            bind(ps, params);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+
+        /** Receives the rows of {@link #forEachFile} as stored, with the directory as its id. */
+        interface FileRowVisitor {
+            void row(long id, long dirId, String name, String extension, long size, long lastModified, long indexedAt);
+        }
+
+        /** Streams every file row in id order; used to build the {@link MemoryIndex}. */
+        public synchronized void forEachFile(FileRowVisitor v) throws SQLException {
+            try (Statement st = conn.createStatement();
+                 ResultSet rs = st.executeQuery("SELECT id, dir_id, name, extension, size, last_modified, indexed_at FROM files ORDER BY id")) {
+                while (rs.next()) v.row(rs.getLong(1), rs.getLong(2), rs.getString(3), rs.getString(4), rs.getLong(5), rs.getLong(6), rs.getLong(7));
+            }
+        }
+
+        /** Path (with trailing separator) of every directory, keyed by id. */
+        public synchronized Map<Long, String> directories() throws SQLException {
+            Map<Long, String> dirs = new HashMap<>();
+            try (Statement st = conn.createStatement(); ResultSet rs = st.executeQuery("SELECT id, path FROM directories")) {
+                while (rs.next()) dirs.put(rs.getLong(1), rs.getString(2));
+            }
+            return dirs;
+        }
+
+        private void appendWhere(StringBuilder sb, List<Object> params, SearchFilter f) {
+            appendWhere(sb, params, f, "f.", null);
+        }
+
+        // col prefixes every column reference: "f.", or "+f." to keep the planner from using their indexes.
+        // windows, if given, holds the from/to id pairs the caller limits the query to; the trigram
+        // lookup is cut to them too, instead of collecting every match first.
+        private void appendWhere(StringBuilder sb, List<Object> params, SearchFilter f, String col, long[] windows) {
+            sb.append(" WHERE 1=1");
+            if (f.name != null) {
+                // Trigrams need at least three characters; shorter terms scan with LIKE
+                if (hasNameIndex && f.name.length() >= 3) {
+                    String term = "\"" + f.name.replace("\"", "\"\"") + "\"";
+                    if (windows == null) {
+                        sb.append(" AND ").append(col).append("id IN (SELECT rowid FROM files_fts WHERE files_fts MATCH ?)");
+                        params.add(term);
+                    } else {
+                        sb.append(" AND ").append(col).append("id IN (");
+                        for (int w = 0; w < windows.length; w += 2) {
+                            sb.append(w == 0 ? "" : " UNION ALL ").append("SELECT rowid FROM files_fts WHERE files_fts MATCH ? AND rowid BETWEEN ? AND ?");
+                            params.add(term);
+                            params.add(windows[w]);
+                            params.add(windows[w + 1]);
+                        }
+                        sb.append(")");
+                    }
+                } else {
+                    sb.append(" AND ").append(col).append("name LIKE ? ESCAPE '\\'");
+                    params.add(likePattern(f.name));
+                }
+            }
+            if (f.exts != null) {
+                sb.append(" AND ").append(col).append("extension");
+                if (f.exts.size() == 1) sb.append(" = ?");
+                else sb.append(" IN (").append(String.join(",", Collections.nCopies(f.exts.size(), "?"))).append(")");
+                params.addAll(f.exts);
+            }
+            if (f.minSize != null) { sb.append(" AND ").append(col).append("size >= ?"); params.add(f.minSize); }
+            if (f.maxSize != null) { sb.append(" AND ").append(col).append("size <= ?"); params.add(f.maxSize); }
+            if (f.minDate != null) { sb.append(" AND ").append(col).append("last_modified >= ?"); params.add(f.minDate); }
+            if (f.maxDate != null) { sb.append(" AND ").append(col).append("last_modified <= ?"); params.add(f.maxDate); }
+        }
+
+        /** LIKE pattern (escape character {@code \}) for names containing {@code term}, its % and _ taken literally. */
+        static String likePattern(String term) {
+            return "%" + term.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+        }
+
+        private static void appendOrder(StringBuilder sb, SearchFilter f) {
+            String dir = f.desc ? " DESC" : " ASC";
+            sb.append(" ORDER BY f.").append(f.orderBy).append(dir).append(", f.id").append(dir);
+        }
+
+        private List<FileRecord> query(String sql, List<Object> params) throws SQLException {
+            PreparedStatement ps = prepared(sql);
+            bind(ps, params);
+            try (ResultSet rs = ps.executeQuery()) {
+                List<FileRecord> list = new ArrayList<>();
+                while (rs.next()) list.add(readRecord(rs));
+                return list;
+            }
+        }
+
+        private static void bind(PreparedStatement ps, List<Object> params) throws SQLException {
+            for (int i = 0; i < params.size(); i++) {
+                Object p = params.get(i);
+                if (p instanceof String) ps.setString(i + 1, (String) p);
+                else if (p instanceof Long) ps.setLong(i + 1, (Long) p);
+                else throw new IllegalArgumentException("Unsupported param type: " + p);
+            }
+        }
+
+        private static Object sortKey(FileRecord r, String orderBy) {
+            switch (orderBy) {
+                case "name": return r.name;
+                case "extension": return r.extension;
+                case "size": return r.size;
+                case "last_modified": return r.lastModified;
+                default: return r.indexedAt;
+            }
+        }
+
+        private PreparedStatement prepared(String sql) throws SQLException {
+            // A reader's caller cancels by interrupting; this catches a cancel that lands before the statement runs
+            if (reader && Thread.currentThread().isInterrupted()) throw new SQLException("Query cancelled");
+            PreparedStatement ps = statements.get(sql);
+            if (ps == null) {
+                ps = conn.prepareStatement(sql);
+                statements.put(sql, ps);
+            }
+            runner = Thread.currentThread();
+            running = ps;
+            return ps;
+        }
+
+        /**
+         * Aborts the query executing on this connection if {@code thread} started it; it fails with an
+         * SQLException. Deliberately not synchronized so it can be called while a query holds the lock.
+         */
+        void cancelRunning(Thread thread) {
+            Statement st = running;
+            if (st == null || runner != thread) return;
+            try { st.cancel(); } catch (SQLException ignored) {}
+        }
+
+        private static FileRecord readRecord(ResultSet rs) throws SQLException {
+            FileRecord r = new FileRecord();
+            r.id = rs.getLong(1);
+            r.path = rs.getString(2);
+            r.name = rs.getString(3);
+            r.extension = rs.getString(4);
+            r.size = rs.getLong(5);
+            r.lastModified = rs.getLong(6);
+            r.indexedAt = rs.getLong(7);
+            r.sha256 = getHash(rs, 8);
+            return r;
+        }
+
+        public synchronized List<FileRecord> recent(int limit) throws SQLException {
+            PreparedStatement ps = prepared(SELECT_RECORDS + " ORDER BY f.indexed_at DESC LIMIT ?");
+            ps.setInt(1, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                List<FileRecord> list = new ArrayList<>();
+                while (rs.next()) list.add(readRecord(rs));
+                return list;
+            }
+        }
+
+        /** Every file that has at least one duplicate, largest wasted space first. */
+        public synchronized List<FileRecord> duplicates() throws SQLException {
+            return duplicates(Integer.MAX_VALUE, null).rows;
+        }
+
+        /**
+         * One page of duplicate groups from {@code dup_groups}, ordered by wasted bytes (descending), with
+         * all files of each group. {@code limit} counts groups, not files; pass the returned
+         * {@link Page#next} to continue.
+         */
+        public synchronized Page duplicates(int limit, Cursor after) throws SQLException {
+            String sql = "SELECT f.id, d.path || f.name, f.name, f.extension, f.size, f.last_modified," +
+                    " f.indexed_at, f.sha256, g.wasted, g.rowid FROM files f JOIN directories d ON d.id = f.dir_id\n" +
+                    " JOIN (SELECT rowid, sha256, size, wasted FROM dup_groups WHERE count > 1" +
+                    (after != null ? " AND (wasted, rowid) < (?, ?)" : "") +
+                    " ORDER BY wasted DESC, rowid DESC LIMIT ?) g\n" +
+                    " ON f.sha256=g.sha256 AND f.size=g.size ORDER BY g.wasted DESC, g.rowid DESC, f.name";
+            PreparedStatement ps = prepared(sql);
+            int i = 1;
+            if (after != null) {
+                ps.setLong(i++, (Long) after.key);
+                ps.setLong(i++, after.id);
+            }
+            ps.setLong(i, (long) limit + 1); // one extra group tells whether there is a next page
+            try (ResultSet rs = ps.executeQuery()) {
+                List<FileRecord> list = new ArrayList<>();
+                long groups = 0, lastGroup = -1, lastWasted = 0;
+                while (rs.next()) {
+                    long group = rs.getLong(10);
+                    if (group != lastGroup) {
+                        if (groups == limit) return new Page(list, new Cursor(lastWasted, lastGroup));
+                        groups++; lastGroup = group; lastWasted = rs.getLong(9);
+                    }
+                    list.add(readRecord(rs));
+                }
+                return new Page(list, null);
+            }
+        }
+
+        public void commit() throws SQLException { commitWrite(); }
+
+        private void commitWrite() throws SQLException {
+            prepared("UPDATE meta SET value = value + 1 WHERE key = 'generation'").executeUpdate();
+            conn.commit();
+            COMMITS.incrementAndGet();
+        }
+
+        /**
+         * Writes committed through any Database in this process. Unlike {@link #stamp()} it costs no
+         * query, so it can be checked on every search; it does not see writes by other processes.
+         */
+        static long commits() { return COMMITS.get(); }
+
+        /** Generation of the indexed data; grows with every committed write, across processes and restarts. */
+        public synchronized long stamp() throws SQLException {
+            try (ResultSet rs = prepared("SELECT value FROM meta WHERE key = 'generation'").executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+
+        /** Whether name terms of three or more characters use the trigram index (FTS5 was available). */
+        boolean hasNameIndex() { return hasNameIndex; }
+
+        @Override public synchronized void close() {
+            for (PreparedStatement ps : statements.values()) {
+                try { ps.close(); } catch (Exception ignored) {}
+            }
+            statements.clear();
+            try { if (!conn.getAutoCommit()) conn.commit(); } catch (Exception ignored) {}
+            try { conn.close(); } catch (Exception ignored) {}
+        }
+    }
+
+    // ===== In-memory index =====
+    /**
+     * Read-only columnar copy of {@code files} for interactive search without SQLite. Numeric columns
+     * and the extension id are fixed-width columns, names one UTF-8 byte pool with offsets, and
+     * directories and extensions small dictionaries. A filter is evaluated as a parallel scan into a
+     * bitset of matching rows, starting from per-extension {@link RowBitmap}s when it names
+     * extensions; pages are then read in sort order from a row permutation per sort column. Small
+     * results skip the permutation and are sorted directly.
+     *
+     * The columns are buffers, either heap arrays ({@link #load}, permutations built on first use) or
+     * a memory-mapped snapshot file ({@link #open}, permutations precomputed). A mapped index costs no
+     * heap and starts in milliseconds; the OS pages in only the columns a query touches.
+     *
+     * Semantics follow {@link Database#search}: name is a literal substring match (% and _ included)
+     * that folds case like the engine the database would use for the term, i.e. per Unicode code point where its trigram index
+     * serves the term (three or more characters) and ASCII-only where LIKE does. Text sorts by UTF-8
+     * bytes (as SQLite's BINARY collation), ties break on id, and cursors are interchangeable with the
+     * database's. Hashes are not loaded. The index is a snapshot: reload it after the database changes.
+     */
+    static final class MemoryIndex implements SearchIndex {
+        static final int SMALL_RESULT = 1 << 16; // at most this many hits are sorted directly
+        static final List<String> SORT_ORDER = Arrays.asList("name", "extension", "size", "last_modified", "indexed_at");
+
+        private final int n;
+        private final long stamp; // Database.stamp() of the source when it was read
+        private final boolean nameIndex; // the source had a trigram index, so longer names fold Unicode case
+        private final LongBuffer ids; // ascending, so row order is id order
+        private final IntBuffer dirs;
+        private final String[] dirPaths;
+        private final IntBuffer nameStart; // n + 1 offsets into names
+        private final ByteBuffer names;
+        private final IntBuffer exts;
+        private final String[] extDict;
+        private final byte[][] extBytes;
+        private final int[] extRank; // position of each extDict entry in byte order
+        private final Map<String, Integer> extIds = new HashMap<>();
+        private final LongBuffer sizes, modified, indexed;
+        private final Map<String, IntBuffer> orders = new ConcurrentHashMap<>();
+        private volatile RowBitmap[] extBitmaps;
+        private List<ByteBuffer> mapped = Collections.emptyList(); // snapshot sections, unmapped by close
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private final AtomicInteger users = new AtomicInteger(1); // running queries, plus one until close
+
+        private MemoryIndex(int n, long stamp, boolean nameIndex, LongBuffer ids, IntBuffer dirs, String[] dirPaths, IntBuffer nameStart, ByteBuffer names,
+                            IntBuffer exts, String[] extDict, LongBuffer sizes, LongBuffer modified, LongBuffer indexed) {
+            this.n = n; this.stamp = stamp; this.nameIndex = nameIndex;
+            this.ids = ids; this.dirs = dirs; this.dirPaths = dirPaths;
+            this.nameStart = nameStart; this.names = names;
+            this.exts = exts; this.extDict = extDict;
+            this.sizes = sizes; this.modified = modified; this.indexed = indexed;
+            extBytes = new byte[extDict.length][];
+            Integer[] byBytes = new Integer[extDict.length];
+            for (int e = 0; e < extDict.length; e++) {
+                extIds.put(extDict[e], e);
+                extBytes[e] = extDict[e].getBytes(StandardCharsets.UTF_8);
+                byBytes[e] = e;
+            }
+            Arrays.sort(byBytes, (a, b) -> compareBytes(extBytes[a], extBytes[b]));
+            extRank = new int[extDict.length];
+            for (int r = 0; r < byBytes.length; r++) extRank[byBytes[r]] = r;
+        }
+
+        /** Reads every file row from {@code db} into a new heap-backed index. */
+        static MemoryIndex load(Database db) throws SQLException {
+            long stamp = db.stamp();
+            Loader l = new Loader(db.directories());
+            db.forEachFile(l);
+            return l.build(stamp, db.hasNameIndex());
+        }
+
+        int size() { return n; }
+
+        /** {@link Database#stamp()} of the database this index was read from. */
+        long stamp() { return stamp; }
+
+        /**
+         * Unmaps the snapshot once the queries running on it are done, so the file can be replaced:
+         * Windows refuses while it is mapped, and the collector may take long to unmap it otherwise.
+         * Queries started afterwards fail. A heap index only stops answering.
+         */
+        void close() {
+            if (closed.compareAndSet(false, true)) release();
+        }
+
+        private void acquire() {
+            for (int u = users.get(); ; u = users.get()) {
+                if (u == 0) throw new IllegalStateException("In-memory index closed");
+                if (users.compareAndSet(u, u + 1)) return;
+            }
+        }
+
+        private void release() {
+            if (users.decrementAndGet() == 0) for (ByteBuffer b : mapped) unmap(b);
+        }
+
+        private static final Object UNSAFE;
+        private static final Method INVOKE_CLEANER;
+        static {
+            Object unsafe = null;
+            Method invokeCleaner = null;
+            try {
+                Class<?> c = Class.forName("sun.misc.Unsafe");
+                Field f = c.getDeclaredField("theUnsafe");
+                f.setAccessible(true);
+                unsafe = f.get(null);
+                invokeCleaner = c.getMethod("invokeCleaner", ByteBuffer.class);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                // before Java 9, or locked down: mappings go when the collector frees their buffers
+            }
+            UNSAFE = unsafe;
+            INVOKE_CLEANER = invokeCleaner;
+        }
+
+        // Looked up reflectively like the virtual-thread executor; a no-op where it is unavailable
+        private static void unmap(ByteBuffer buf) {
+            if (INVOKE_CLEANER == null) return;
+            try {
+                INVOKE_CLEANER.invoke(UNSAFE, buf);
+            } catch (ReflectiveOperationException | RuntimeException ignored) {
+                // left to the collector
+            }
+        }
+
+        /**
+         * Growable columns filled row by row, trimmed by {@link #build}. {@link #load} feeds it from the
+         * database; tests feed it rows directly.
+         */
+        static final class Loader implements Database.FileRowVisitor {
+            final Map<Long, Integer> dirIndex = new HashMap<>();
+            final String[] dirPaths;
+            final List<String> extDict = new ArrayList<>();
+            final Map<String, Integer> extIds = new HashMap<>();
+            int n, nameEnd;
+            long[] ids = new long[1024], sizes = new long[1024], modified = new long[1024], indexed = new long[1024];
+            int[] dirs = new int[1024], exts = new int[1024], nameStart = new int[1025];
+            byte[] names = new byte[16 * 1024];
+
+            Loader(Map<Long, String> directories) {
+                dirPaths = new String[directories.size()];
+                int i = 0;
+                for (Map.Entry<Long, String> e : directories.entrySet()) {
+                    dirIndex.put(e.getKey(), i);
+                    dirPaths[i++] = e.getValue();
+                }
+            }
+
+            /** The rows so far as an index; {@code nameIndex} as {@link Database#hasNameIndex()} of the source. */
+            MemoryIndex build(long stamp, boolean nameIndex) {
+                return new MemoryIndex(n, stamp, nameIndex, LongBuffer.wrap(Arrays.copyOf(ids, n)), IntBuffer.wrap(Arrays.copyOf(dirs, n)), dirPaths,
+                        IntBuffer.wrap(Arrays.copyOf(nameStart, n + 1)), ByteBuffer.wrap(Arrays.copyOf(names, nameEnd)),
+                        IntBuffer.wrap(Arrays.copyOf(exts, n)), extDict.toArray(new String[0]),
+                        LongBuffer.wrap(Arrays.copyOf(sizes, n)), LongBuffer.wrap(Arrays.copyOf(modified, n)),
+                        LongBuffer.wrap(Arrays.copyOf(indexed, n)));
+            }
+
+            @Override public void row(long id, long dirId, String name, String extension, long size, long lastModified, long indexedAt) {
+                if (n == ids.length) {
+                    int cap = n * 2;
+                    ids = Arrays.copyOf(ids, cap); sizes = Arrays.copyOf(sizes, cap);
+                    modified = Arrays.copyOf(modified, cap); indexed = Arrays.copyOf(indexed, cap);
+                    dirs = Arrays.copyOf(dirs, cap); exts = Arrays.copyOf(exts, cap);
+                    nameStart = Arrays.copyOf(nameStart, cap + 1);
+                }
+                byte[] nb = name.getBytes(StandardCharsets.UTF_8);
+                if (names.length - nameEnd < nb.length) {
+                    long cap = Math.max((long) names.length * 2, (long) nameEnd + nb.length);
+                    if (cap > Integer.MAX_VALUE - 8) throw new IllegalStateException("Names exceed 2 GB; index too large to hold in memory");
+                    names = Arrays.copyOf(names, (int) cap);
+                }
+                System.arraycopy(nb, 0, names, nameEnd, nb.length);
+                nameEnd += nb.length;
+                String ext = extension == null ? "" : extension;
+                Integer e = extIds.get(ext);
+                if (e == null) {
+                    e = extDict.size();
+                    extIds.put(ext, e);
+                    extDict.add(ext);
+                }
+                Integer d = dirIndex.get(dirId);
+                ids[n] = id;
+                dirs[n] = d == null ? -1 : d;
+                exts[n] = e;
+                sizes[n] = size;
+                modified[n] = lastModified;
+                indexed[n] = indexedAt;
+                nameStart[++n] = nameEnd;
+            }
+        }
+
+        // ----- Snapshot file -----
+        // Little-endian. Header: magic, version, rows, dir count, ext count, flags, stamp, then an
+        // (offset, length) pair per section in SECTIONS order. Sections are 8-byte aligned.
+        static final int MAGIC = 0x58495346; // "FSIX"
+        static final int VERSION = 2; // 2: flags
+        static final int FLAG_NAME_INDEX = 1;
+        private static final String[] SECTIONS = {"ids", "dirs", "exts", "sizes", "modified", "indexed", "nameStart", "names",
+                "dirStart", "dirBytes", "extStart", "extBytes",
+                "order:name", "order:extension", "order:size", "order:last_modified", "order:indexed_at"};
+        private static final int HEADER = 32 + SECTIONS.length * 16;
+
+        /**
+         * Writes every file row of {@code db}, with every sort permutation, as a snapshot {@link #open}
+         * can map. Rows stream from the database to disk column by column; the heap holds only the
+         * dictionaries, and one permutation at a time while it is sorted. The stamp is read before
+         * the rows, so a write racing the export can only make the snapshot look older than it is.
+         */
+        static void writeSnapshot(Database db, Path file) throws SQLException, IOException {
+            long stamp = db.stamp();
+            try (SnapshotWriter w = new SnapshotWriter(file, db.directories(), stamp, db.hasNameIndex())) {
+                try {
+                    db.forEachFile(w);
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+                w.finish();
+            }
+        }
+
+        /** {@link Database#stamp()} recorded in the snapshot at {@code file}; -1 if there is none or it is unreadable. */
+        static long stampOf(Path file) {
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+                ByteBuffer header = ByteBuffer.allocate(32).order(ByteOrder.LITTLE_ENDIAN);
+                while (header.hasRemaining() && ch.read(header) >= 0) { /* fill */ }
+                header.flip();
+                if (header.remaining() < 32 || header.getInt() != MAGIC || header.getInt() != VERSION) return -1;
+                return header.getLong(24);
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+
+        /**
+         * Streams rows, in ascending id order, into a snapshot. The row count is not known up front,
+         * so each column goes to its own temporary file first; {@link #finish} copies them into one
+         * file, maps that to sort the permutations and moves it over the target, so readers never see
+         * a partial snapshot. Temporary files are unique per writer and live next to the target;
+         * {@link #close} removes whatever is left of them.
+         */
+        static final class SnapshotWriter implements Database.FileRowVisitor, AutoCloseable {
+            private final Path file;
+            private final long stamp;
+            private final boolean nameIndex;
+            private final Map<Long, Integer> dirIndex = new HashMap<>();
+            private final List<byte[]> dirUtf8 = new ArrayList<>();
+            private final Map<String, Integer> extIds = new HashMap<>();
+            private final List<byte[]> extUtf8 = new ArrayList<>();
+            private final List<Path> temps = new ArrayList<>();
+            private final Map<String, ColumnFile> columns = new LinkedHashMap<>(); // by section name
+            private final ColumnFile ids, dirs, exts, sizes, modified, indexed, nameStart, names;
+            private int n;
+            private long nameEnd;
+
+            SnapshotWriter(Path file, Map<Long, String> directories, long stamp, boolean nameIndex) throws IOException {
+                this.file = file.toAbsolutePath();
+                this.stamp = stamp;
+                this.nameIndex = nameIndex;
+                for (Map.Entry<Long, String> e : directories.entrySet()) {
+                    dirIndex.put(e.getKey(), dirUtf8.size());
+                    dirUtf8.add(e.getValue().getBytes(StandardCharsets.UTF_8));
+                }
+                ids = column("ids"); dirs = column("dirs"); exts = column("exts");
+                sizes = column("sizes"); modified = column("modified"); indexed = column("indexed");
+                nameStart = column("nameStart"); names = column("names");
+                nameStart.putInt(0);
+            }
+
+            private ColumnFile column(String section) throws IOException {
+                ColumnFile c = new ColumnFile(temp());
+                columns.put(section, c);
+                return c;
+            }
+
+            private Path temp() throws IOException {
+                Path t = Files.createTempFile(file.getParent(), file.getFileName() + ".", ".tmp");
+                temps.add(t);
+                return t;
+            }
+
+            @Override public void row(long id, long dirId, String name, String extension, long size, long lastModified, long indexedAt) {
+                byte[] nb = name.getBytes(StandardCharsets.UTF_8);
+                if (nameEnd + nb.length > Integer.MAX_VALUE - 8) throw new IllegalStateException("Names exceed 2 GB; index too large to map");
+                nameEnd += nb.length;
+                String ext = extension == null ? "" : extension;
+                Integer e = extIds.get(ext);
+                if (e == null) {
+                    e = extUtf8.size();
+                    extIds.put(ext, e);
+                    extUtf8.add(ext.getBytes(StandardCharsets.UTF_8));
+                }
+                Integer d = dirIndex.get(dirId);
+                try {
+                    ids.putLong(id);
+                    dirs.putInt(d == null ? -1 : d);
+                    exts.putInt(e);
+                    sizes.putLong(size);
+                    modified.putLong(lastModified);
+                    indexed.putLong(indexedAt);
+                    nameStart.putInt((int) nameEnd);
+                    names.put(nb);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex); // the visitor cannot throw; writeSnapshot unwraps it
+                }
+                n++;
+            }
+
+            /** Assembles the snapshot from the rows so far and moves it over the target file. */
+            void finish() throws IOException {
+                for (ColumnFile c : columns.values()) c.flush();
+                Path tmp = temp();
+                try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+                    header.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(dirUtf8.size()).putInt(extUtf8.size())
+                            .putInt(nameIndex ? FLAG_NAME_INDEX : 0).putLong(stamp);
+                    ch.position(HEADER);
+                    Map<String, ByteBuffer> mapped = new HashMap<>();
+                    MemoryIndex index = null;
+                    for (String section : SECTIONS) {
+                        if (section.startsWith("order:") && index == null) {
+                            // every column is in place: sort the permutations over the mapped columns
+                            index = fromSections(n, stamp, nameIndex, dirUtf8.size(), extUtf8.size(), mapped);
+                        }
+                        long start = ch.position();
+                        ColumnFile c = columns.get(section);
+                        if (c != null) {
+                            c.transferTo(ch);
+                        } else {
+                            switch (section) {
+                                case "dirStart": writeInts(ch, IntBuffer.wrap(offsets(dirUtf8)), dirUtf8.size() + 1); break;
+                                case "dirBytes": for (byte[] b : dirUtf8) writeFully(ch, ByteBuffer.wrap(b)); break;
+                                case "extStart": writeInts(ch, IntBuffer.wrap(offsets(extUtf8)), extUtf8.size() + 1); break;
+                                case "extBytes": for (byte[] b : extUtf8) writeFully(ch, ByteBuffer.wrap(b)); break;
+                                default:
+                                    String column = section.substring("order:".length());
+                                    writeInts(ch, index.order(column), n);
+                                    index.orders.remove(column); // one permutation on the heap at a time
+                            }
+                        }
+                        long end = ch.position();
+                        header.putLong(start).putLong(end - start);
+                        if (index == null) mapped.put(section, ch.map(FileChannel.MapMode.READ_ONLY, start, end - start).order(ByteOrder.LITTLE_ENDIAN));
+                        ch.position((end + 7) & ~7L);
+                    }
+                    header.flip();
+                    ch.write(header, 0);
+                    ch.force(false);
+                }
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+
+            @Override public void close() throws IOException {
+                for (ColumnFile c : columns.values()) c.close();
+                for (Path t : temps) Files.deleteIfExists(t);
+            }
+        }
+
+        // A column being written: a temporary file behind a direct little-endian buffer
+        private static final class ColumnFile implements AutoCloseable {
+            private final FileChannel ch;
+            private final ByteBuffer buf = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+
+            ColumnFile(Path path) throws IOException {
+                ch = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+
+            void putInt(int v) throws IOException {
+                if (buf.remaining() < 4) flush();
+                buf.putInt(v);
+            }
+
+            void putLong(long v) throws IOException {
+                if (buf.remaining() < 8) flush();
+                buf.putLong(v);
+            }
+
+            void put(byte[] b) throws IOException {
+                for (int off = 0; off < b.length; ) {
+                    if (!buf.hasRemaining()) flush();
+                    int k = Math.min(buf.remaining(), b.length - off);
+                    buf.put(b, off, k);
+                    off += k;
+                }
+            }
+
+            void flush() throws IOException {
+                buf.flip();
+                while (buf.hasRemaining()) ch.write(buf);
+                buf.clear();
+            }
+
+            // Appends the whole column at target's position, which it advances
+            void transferTo(FileChannel target) throws IOException {
+                for (long pos = 0, size = ch.size(); pos < size; ) pos += ch.transferTo(pos, size - pos, target);
+            }
+
+            @Override public void close() throws IOException { ch.close(); }
+        }
+
+        /**
+         * Maps a snapshot written by {@link #writeSnapshot}. Only the small directory and extension
+         * dictionaries are decoded; every column stays in the page cache, outside the heap.
+         */
+        static MemoryIndex open(Path file) throws IOException {
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+                while (header.hasRemaining() && ch.read(header) >= 0) { /* fill */ }
+                header.flip();
+                if (header.remaining() < HEADER || header.getInt() != MAGIC || header.getInt() != VERSION) {
+                    throw new IOException("Not an index snapshot: " + file);
+                }
+                int n = header.getInt(), dirCount = header.getInt(), extCount = header.getInt();
+                boolean nameIndex = (header.getInt() & FLAG_NAME_INDEX) != 0;
+                long stamp = header.getLong();
+                Map<String, ByteBuffer> s = new HashMap<>();
+                List<ByteBuffer> mapped = new ArrayList<>();
+                for (String section : SECTIONS) {
+                    long offset = header.getLong(), length = header.getLong();
+                    if (length > Integer.MAX_VALUE) throw new IOException("Snapshot section too large: " + section);
+                    ByteBuffer b = ch.map(FileChannel.MapMode.READ_ONLY, offset, length);
+                    mapped.add(b);
+                    s.put(section, b.order(ByteOrder.LITTLE_ENDIAN));
+                }
+                MemoryIndex index = fromSections(n, stamp, nameIndex, dirCount, extCount, s);
+                index.mapped = mapped;
+                for (String column : SORT_ORDER) index.orders.put(column, s.get("order:" + column).asIntBuffer());
+                return index;
+            }
+        }
+
+        // An index over mapped column sections; permutations are left to the caller
+        private static MemoryIndex fromSections(int n, long stamp, boolean nameIndex, int dirCount, int extCount, Map<String, ByteBuffer> s) {
+            return new MemoryIndex(n, stamp, nameIndex, s.get("ids").asLongBuffer(), s.get("dirs").asIntBuffer(),
+                    strings(s.get("dirStart").asIntBuffer(), s.get("dirBytes"), dirCount),
+                    s.get("nameStart").asIntBuffer(), s.get("names"), s.get("exts").asIntBuffer(),
+                    strings(s.get("extStart").asIntBuffer(), s.get("extBytes"), extCount),
+                    s.get("sizes").asLongBuffer(), s.get("modified").asLongBuffer(), s.get("indexed").asLongBuffer());
+        }
+
+        private static int[] offsets(List<byte[]> strings) {
+            int[] start = new int[strings.size() + 1];
+            for (int i = 0; i < strings.size(); i++) start[i + 1] = start[i] + strings.get(i).length;
+            return start;
+        }
+
+        private static String[] strings(IntBuffer start, ByteBuffer bytes, int count) {
+            String[] out = new String[count];
+            for (int i = 0; i < count; i++) out[i] = utf8(bytes, start.get(i), start.get(i + 1));
+            return out;
+        }
+
+        private static void writeInts(FileChannel ch, IntBuffer col, int count) throws IOException {
+            ByteBuffer buf = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < count; i++) {
+                if (buf.remaining() < 4) { buf.flip(); writeFully(ch, buf); buf.clear(); }
+                buf.putInt(col.get(i));
+            }
+            buf.flip();
+            writeFully(ch, buf);
+        }
+
+        private static void writeFully(FileChannel ch, ByteBuffer buf) throws IOException {
+            buf.position(0);
+            while (buf.hasRemaining()) ch.write(buf);
+        }
+
+        // ----- Queries -----
+        @Override public Database.Page search(SearchFilter f, int limit, Database.Cursor after) {
+            acquire();
+            try {
+                return page(f, limit, after, 0);
+            } finally {
+                release();
+            }
+        }
+
+        @Override public Database.Page searchAt(SearchFilter f, int limit, long offset) {
+            acquire();
+            try {
+                return page(f, limit, null, offset);
+            } finally {
+                release();
+            }
+        }
+
+        /** Always exact: counting is one pass over the match bitset. */
+        @Override public Database.Count estimateCount(SearchFilter f) { return new Database.Count(count(f), true); }
+
+        @Override public long count(SearchFilter f) {
+            acquire();
+            try {
+                return countMatches(f);
+            } finally {
+                release();
+            }
+        }
+
+        private long countMatches(SearchFilter f) {
+            if (f.exts != null && f.name == null && f.minSize == null && f.maxSize == null && f.minDate == null && f.maxDate == null) {
+                long total = 0; // extension only: the bitmaps already know
+                for (String ext : f.exts) {
+                    Integer id = extIds.get(ext);
+                    if (id != null) total += extBitmaps()[id].cardinality();
+                }
+                return total;
+            }
+            long[] hits = matches(f);
+            return hits == null ? 0 : Arrays.stream(hits).parallel().map(Long::bitCount).sum();
+        }
+
+        private Database.Page page(SearchFilter f, int limit, Database.Cursor after, long offset) {
+            long[] hits = matches(f);
+            if (hits == null) return new Database.Page(new ArrayList<>(), null);
+            Order order = new Order(f.orderBy);
+            long total = Arrays.stream(hits).parallel().map(Long::bitCount).sum();
+            IntBuffer rows;
+            if (total <= SMALL_RESULT) {
+                int[] small = new int[(int) total];
+                int k = 0;
+                for (int w = 0; w < hits.length; w++) {
+                    for (long bits = hits[w]; bits != 0; bits &= bits - 1) small[k++] = (w << 6) + Long.numberOfTrailingZeros(bits);
+                }
+                sort(small, order);
+                rows = IntBuffer.wrap(small);
+                hits = null; // every row in the list matches
+            } else {
+                rows = order(f.orderBy);
+            }
+            int from = 0, to = rows.limit(); // walk rows[from..to) forwards or backwards
+            if (after != null) {
+                // first position past the cursor in ascending order
+                Order.Key key = order.key(after);
+                int lo = 0, hi = to;
+                while (lo < hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (order.compareTo(rows.get(mid), key) <= 0) lo = mid + 1; else hi = mid;
+                }
+                if (!f.desc) from = lo;
+                else to = lo > 0 && order.compareTo(rows.get(lo - 1), key) == 0 ? lo - 1 : lo; // skip the cursor row itself
+            }
+            List<FileRecord> out = new ArrayList<>(Math.min(limit, 1024));
+            int last = -1;
+            long skip = offset;
+            for (int step = f.desc ? -1 : 1, p = f.desc ? to - 1 : from; p >= from && p < to; p += step) {
+                int row = rows.get(p);
+                if (hits != null && (hits[row >>> 6] & (1L << row)) == 0) continue;
+                if (skip > 0) { skip--; continue; }
+                if (out.size() == limit) return new Database.Page(out, cursor(last, f.orderBy));
+                out.add(record(row));
+                last = row;
+            }
+            return new Database.Page(out, null);
+        }
+
+        /** Row permutation in ascending (column, id) order; computed and kept on first use if not mapped. */
+        private IntBuffer order(String column) {
+            return orders.computeIfAbsent(column, c -> {
+                int[] all = new int[n];
+                for (int i = 0; i < n; i++) all[i] = i;
+                sort(all, new Order(c));
+                return IntBuffer.wrap(all);
+            });
+        }
+
+        /**
+         * Bitset of rows passing {@code f}; null if none can match. An extension filter starts from the
+         * union of the extensions' row bitmaps, and the remaining tests only run on rows in it. Words
+         * are evaluated in parallel, one 64-row word per task.
+         */
+        private long[] matches(SearchFilter f) {
+            long[] hits = new long[(n + 63) >>> 6];
+            if (f.exts != null) {
+                RowBitmap[] bitmaps = extBitmaps();
+                boolean any = false;
+                for (String ext : f.exts) {
+                    Integer id = extIds.get(ext);
+                    if (id == null) continue;
+                    bitmaps[id].orInto(hits);
+                    any = true;
+                }
+                if (!any) return null;
+            } else {
+                Arrays.fill(hits, -1L);
+                if ((n & 63) != 0) hits[hits.length - 1] = (1L << (n & 63)) - 1;
+            }
+            final long minSize = f.minSize == null ? Long.MIN_VALUE : f.minSize;
+            final long maxSize = f.maxSize == null ? Long.MAX_VALUE : f.maxSize;
+            final long minDate = f.minDate == null ? Long.MIN_VALUE : f.minDate;
+            final long maxDate = f.maxDate == null ? Long.MAX_VALUE : f.maxDate;
+            final NameMatch needle = f.name == null ? null : new NameMatch(f.name, nameIndex && f.name.length() >= 3);
+            if (needle == null && f.minSize == null && f.maxSize == null && f.minDate == null && f.maxDate == null) return hits;
+            IntStream.range(0, hits.length).parallel().forEach(w -> {
+                long bits = 0;
+                for (long candidates = hits[w]; candidates != 0; candidates &= candidates - 1) {
+                    int i = (w << 6) + Long.numberOfTrailingZeros(candidates);
+                    // cheapest tests first; the name test only runs on rows that passed the rest
+                    long size = sizes.get(i), mtime = modified.get(i);
+                    boolean ok = size >= minSize & size <= maxSize & mtime >= minDate & mtime <= maxDate;
+                    if (ok && needle != null) ok = needle.test(names, nameStart.get(i), nameStart.get(i + 1));
+                    if (ok) bits |= 1L << i;
+                }
+                hits[w] = bits;
+            });
+            return hits;
+        }
+
+        /** Row bitmap per extension id, built in one pass over the extension column on first use. */
+        private RowBitmap[] extBitmaps() {
+            RowBitmap[] b = extBitmaps;
+            if (b == null) {
+                synchronized (this) {
+                    b = extBitmaps;
+                    if (b == null) {
+                        b = new RowBitmap[extDict.length];
+                        for (int e = 0; e < b.length; e++) b[e] = new RowBitmap();
+                        for (int i = 0; i < n; i++) b[exts.get(i)].add(i);
+                        extBitmaps = b;
+                    }
+                }
+            }
+            return b;
+        }
+
+        /**
+         * Roaring-style set of row numbers. Rows are split by their high 16 bits into chunks; a chunk is
+         * a sorted array of the low bits while it holds at most {@link #ARRAY_MAX} rows and a 65536-bit
+         * bitmap beyond that, so both rare and common extensions stay compact. Rows are added in
+         * ascending order only.
+         */
+        static final class RowBitmap {
+            static final int ARRAY_MAX = 4096; // 8 KB either way
+
+            private char[] keys = new char[4];
+            private Object[] chunks = new Object[4]; // char[] of low bits, or long[1024]
+            private int[] counts = new int[4];
+            private int used;
+            private long cardinality;
+
+            void add(int row) {
+                char key = (char) (row >>> 16), low = (char) row;
+                if (used == 0 || keys[used - 1] != key) {
+                    if (used == keys.length) {
+                        keys = Arrays.copyOf(keys, used * 2);
+                        chunks = Arrays.copyOf(chunks, used * 2);
+                        counts = Arrays.copyOf(counts, used * 2);
+                    }
+                    keys[used] = key;
+                    chunks[used] = new char[8];
+                    used++;
+                }
+                int c = used - 1, count = counts[c];
+                if (chunks[c] instanceof long[]) {
+                    ((long[]) chunks[c])[low >>> 6] |= 1L << low;
+                } else if (count < ARRAY_MAX) {
+                    char[] lows = (char[]) chunks[c];
+                    if (count == lows.length) chunks[c] = lows = Arrays.copyOf(lows, Math.min(ARRAY_MAX, count * 2));
+                    lows[count] = low;
+                } else {
+                    char[] lows = (char[]) chunks[c];
+                    long[] bits = new long[1024];
+                    for (char l : lows) bits[l >>> 6] |= 1L << l;
+                    bits[low >>> 6] |= 1L << low;
+                    chunks[c] = bits;
+                }
+                counts[c] = count + 1;
+                cardinality++;
+            }
+
+            long cardinality() { return cardinality; }
+
+            /** ORs the set into a row bitset that keeps row {@code r} at bit {@code r & 63} of word {@code r >>> 6}. */
+            void orInto(long[] words) {
+                for (int c = 0; c < used; c++) {
+                    int base = keys[c] << 16;
+                    if (chunks[c] instanceof long[]) {
+                        long[] bits = (long[]) chunks[c];
+                        for (int w = 0, first = base >>> 6; w < bits.length && first + w < words.length; w++) words[first + w] |= bits[w];
+                    } else {
+                        char[] lows = (char[]) chunks[c];
+                        for (int i = 0; i < counts[c]; i++) {
+                            int row = base | lows[i];
+                            words[row >>> 6] |= 1L << row;
+                        }
+                    }
+                }
+            }
+        }
+
+        private String name(int row) {
+            return utf8(names, nameStart.get(row), nameStart.get(row + 1));
+        }
+
+        private FileRecord record(int row) {
+            FileRecord r = new FileRecord();
+            r.id = ids.get(row);
+            r.name = name(row);
+            int dir = dirs.get(row);
+            r.path = (dir < 0 ? "" : dirPaths[dir]) + r.name;
+            r.extension = extDict[exts.get(row)];
+            r.size = sizes.get(row);
+            r.lastModified = modified.get(row);
+            r.indexedAt = indexed.get(row);
+            return r;
+        }
+
+        private Database.Cursor cursor(int row, String orderBy) {
+            switch (orderBy) {
+                case "name": return new Database.Cursor(name(row), ids.get(row));
+                case "extension": return new Database.Cursor(extDict[exts.get(row)], ids.get(row));
+                case "size": return new Database.Cursor(sizes.get(row), ids.get(row));
+                case "last_modified": return new Database.Cursor(modified.get(row), ids.get(row));
+                default: return new Database.Cursor(indexed.get(row), ids.get(row));
+            }
+        }
+
+        /** Ascending (column, id) order over row numbers for one sort column. */
+        private final class Order {
+            private final String column;
+
+            Order(String column) { this.column = column; }
+
+            int compare(int a, int b) {
+                int c;
+                switch (column) {
+                    case "name": c = compareBytes(names, nameStart.get(a), nameStart.get(a + 1), names, nameStart.get(b), nameStart.get(b + 1)); break;
+                    case "extension": c = Integer.compare(extRank[exts.get(a)], extRank[exts.get(b)]); break;
+                    case "size": c = Long.compare(sizes.get(a), sizes.get(b)); break;
+                    case "last_modified": c = Long.compare(modified.get(a), modified.get(b)); break;
+                    default: c = Long.compare(indexed.get(a), indexed.get(b));
+                }
+                return c != 0 ? c : Integer.compare(a, b); // row order is id order
+            }
+
+            /** A cursor's sort key in comparable form. */
+            final class Key {
+                final ByteBuffer text;
+                final long number;
+                final long id;
+
+                Key(ByteBuffer text, long number, long id) { this.text = text; this.number = number; this.id = id; }
+            }
+
+            Key key(Database.Cursor c) {
+                if (c.key instanceof String) return new Key(ByteBuffer.wrap(((String) c.key).getBytes(StandardCharsets.UTF_8)), 0, c.id);
+                return new Key(null, ((Number) c.key).longValue(), c.id);
+            }
+
+            int compareTo(int row, Key k) {
+                int c;
+                switch (column) {
+                    case "name": c = compareBytes(names, nameStart.get(row), nameStart.get(row + 1), k.text, 0, k.text.limit()); break;
+                    case "extension": c = compareBytes(extBytes[exts.get(row)], k.text.array()); break;
+                    case "size": c = Long.compare(sizes.get(row), k.number); break;
+                    case "last_modified": c = Long.compare(modified.get(row), k.number); break;
+                    default: c = Long.compare(indexed.get(row), k.number);
+                }
+                return c != 0 ? c : Long.compare(ids.get(row), k.id);
+            }
+        }
+
+        /**
+         * Stable merge sort of row numbers: runs of 32 by insertion sort, then merge passes of doubling
+         * width, each pass spread over the common fork-join pool.
+         */
+        private static void sort(int[] a, Order order) {
+            final int len = a.length, run = 32;
+            IntStream.range(0, (len + run - 1) / run).parallel().forEach(r -> {
+                for (int i = r * run + 1, end = Math.min(len, (r + 1) * run); i < end; i++) {
+                    int v = a[i], j = i - 1;
+                    while (j >= r * run && order.compare(a[j], v) > 0) { a[j + 1] = a[j]; j--; }
+                    a[j + 1] = v;
+                }
+            });
+            int[] src = a, dst = new int[len];
+            for (int width = run; width < len; width *= 2) {
+                final int w = width;
+                final int[] s = src, d = dst;
+                IntStream.range(0, (len + 2 * w - 1) / (2 * w)).parallel().forEach(p -> {
+                    int lo = p * 2 * w, mid = Math.min(len, lo + w), hi = Math.min(len, lo + 2 * w);
+                    int i = lo, j = mid, k = lo;
+                    while (i < mid && j < hi) d[k++] = order.compare(s[j], s[i]) < 0 ? s[j++] : s[i++];
+                    while (i < mid) d[k++] = s[i++];
+                    while (j < hi) d[k++] = s[j++];
+                });
+                src = d;
+                dst = s;
+            }
+            if (src != a) System.arraycopy(src, 0, a, 0, len);
+        }
+
+        private static String utf8(ByteBuffer buf, int from, int to) {
+            byte[] b = new byte[to - from];
+            for (int i = 0; i < b.length; i++) b[i] = buf.get(from + i);
+            return new String(b, StandardCharsets.UTF_8);
+        }
+
+        // Unsigned lexicographic comparison, i.e. memcmp order of UTF-8
+        static int compareBytes(ByteBuffer a, int aFrom, int aTo, ByteBuffer b, int bFrom, int bTo) {
+            int la = aTo - aFrom, lb = bTo - bFrom;
+            for (int i = 0, m = Math.min(la, lb); i < m; i++) {
+                int c = (a.get(aFrom + i) & 0xff) - (b.get(bFrom + i) & 0xff);
+                if (c != 0) return c;
+            }
+            return la - lb;
+        }
+
+        static int compareBytes(byte[] a, byte[] b) {
+            return compareBytes(ByteBuffer.wrap(a), 0, a.length, ByteBuffer.wrap(b), 0, b.length);
+        }
+
+        /**
+         * A name term matched the way {@link Database#search} would: ASCII case-insensitively (LIKE), or
+         * with each code point lower-cased on both sides (the trigram tokenizer's folding). The Unicode
+         * test first tries the ASCII one on the folded term, and only decodes names with non-ASCII bytes.
+         */
+        static final class NameMatch {
+            private final boolean unicode;
+            private final byte[] ascii; // term in UTF-8, ASCII letters lower-cased
+            private final String folded; // term with every code point lower-cased; null unless unicode
+
+            NameMatch(String term, boolean unicode) {
+                this.unicode = unicode;
+                folded = unicode ? fold(term) : null;
+                ascii = asciiLower((unicode ? folded : term).getBytes(StandardCharsets.UTF_8));
+            }
+
+            boolean test(ByteBuffer names, int from, int to) {
+                if (containsIgnoreAsciiCase(names, from, to, ascii)) return true;
+                if (!unicode) return false;
+                for (int i = from; i < to; i++) {
+                    if (names.get(i) < 0) return fold(utf8(names, from, to)).contains(folded);
+                }
+                return false; // all ASCII: the first test was exact
+            }
+
+            static String fold(String s) {
+                StringBuilder sb = new StringBuilder(s.length());
+                s.codePoints().forEach(cp -> sb.appendCodePoint(Character.toLowerCase(cp)));
+                return sb.toString();
+            }
+        }
+
+        private static byte[] asciiLower(byte[] s) {
+            for (int i = 0; i < s.length; i++) if (s[i] >= 'A' && s[i] <= 'Z') s[i] += 'a' - 'A';
+            return s;
+        }
+
+        static boolean containsIgnoreAsciiCase(ByteBuffer hay, int from, int to, byte[] needle) {
+            // For a letter, (c | 0x20) == first matches exactly its two cases, without a range check per byte
+            int first = needle[0], fold = first >= 'a' && first <= 'z' ? 0x20 : 0;
+            for (int i = from, last = to - needle.length; i <= last; i++) {
+                if ((hay.get(i) | fold) != first) continue;
+                int j = 1;
+                for (; j < needle.length; j++) {
+                    int c = hay.get(i + j);
+                    if (c >= 'A' && c <= 'Z') c += 'a' - 'A';
+                    if (c != needle[j]) break;
+                }
+                if (j == needle.length) return true;
+            }
+            return false;
+        }
+    }
+
+    // ===== Scan metrics =====
+    /**
+     * Counters, gauges and latency histograms for one scan, shared by the walker(s), the batch writer
+     * and the duplicate hasher. Counters are {@link LongAdder}s so hot paths on many
+     * threads never contend on one cache line. {@link #summary()} is for the GUI, {@link #toJson()}
+     * for tools that alert on slowdowns.
+     */
+    static final class ScanMetrics {
+        final long startedAt = System.currentTimeMillis();
+        final LongAdder filesWalked = new LongAdder();
+        final LongAdder filesUnchanged = new LongAdder();
+        final LongAdder filesIndexed = new LongAdder();
+        final LongAdder filesHashed = new LongAdder();
+        final LongAdder bytesHashed = new LongAdder();
+        final LatencyHistogram stat = new LatencyHistogram();
+        final LatencyHistogram hash = new LatencyHistogram();
+        final LatencyHistogram dbWrite = new LatencyHistogram();
+        private final Map<String, LongAdder> errors = new ConcurrentSkipListMap<>();
+        private final AtomicLong peakQueueDepth = new AtomicLong();
+        private volatile IntSupplier queueDepth = () -> 0;
+        private volatile IntSupplier inFlight = () -> 0;
+        private volatile long finishedAt;
+
+        /** Counts a failure under its exception type, e.g. {@code AccessDeniedException}. */
+        void error(Throwable t) {
+            errors.computeIfAbsent(t.getClass().getSimpleName(), k -> new LongAdder()).increment();
+        }
+
+        void error(String type) {
+            errors.computeIfAbsent(type, k -> new LongAdder()).increment();
+        }
+
+        /** Hooks up the live gauge of records waiting for the writer. */
+        void queueGauge(IntSupplier queueDepth) { this.queueDepth = queueDepth; }
+
+        /** Hooks up the live gauge of files the duplicate hasher is reading. */
+        void inFlightGauge(IntSupplier inFlight) { this.inFlight = inFlight; }
+
+        /** Samples the writer queue; called by the writer on every poll. */
+        void sampleQueue(int depth) {
+            peakQueueDepth.accumulateAndGet(depth, Math::max);
+        }
+
+        void finished() { finishedAt = System.currentTimeMillis(); }
+
+        long elapsedMillis() {
+            long end = finishedAt;
+            return (end == 0 ? System.currentTimeMillis() : end) - startedAt;
+        }
+
+        Map<String, Long> errors() {
+            Map<String, Long> out = new LinkedHashMap<>();
+            errors.forEach((k, v) -> out.put(k, v.sum()));
+            return out;
+        }
+
+        String summary() {
+            double secs = Math.max(1, elapsedMillis()) / 1000.0;
+            StringBuilder sb = new StringBuilder();
+            sb.append(finishedAt == 0 ? "Running for " : "Finished in ").append(String.format(Locale.US, "%.1f s%n", secs));
+            sb.append(String.format(Locale.US, "Files walked:    %,d (%,.0f/s)%n", filesWalked.sum(), filesWalked.sum() / secs));
+            sb.append(String.format(Locale.US, "Files unchanged: %,d%n", filesUnchanged.sum()));
+            sb.append(String.format(Locale.US, "Files indexed:   %,d%n", filesIndexed.sum()));
+            sb.append(String.format(Locale.US, "Files hashed:    %,d (%s, %s/s)%n", filesHashed.sum(),
+                    humanSize(bytesHashed.sum()), humanSize((long) (bytesHashed.sum() / secs))));
+            sb.append(String.format(Locale.US, "Writer queue:    %,d now, %,d peak; hashing: %,d%n",
+                    queueDepth.getAsInt(), peakQueueDepth.get(), inFlight.getAsInt()));
+            sb.append("Errors:          ").append(errors().isEmpty() ? "none" : errors().toString()).append('\n');
+            sb.append("Latency          count      p50      p90      p99      max\n");
+            sb.append(stat.row("stat")).append(hash.row("hash")).append(dbWrite.row("db write"));
+            return sb.toString();
+        }
+
+        String toJson() {
+            StringBuilder sb = new StringBuilder("{");
+            sb.append("\"startedAt\":").append(startedAt);
+            sb.append(",\"elapsedMillis\":").append(elapsedMillis());
+            sb.append(",\"finished\":").append(finishedAt != 0);
+            sb.append(",\"filesWalked\":").append(filesWalked.sum());
+            sb.append(",\"filesUnchanged\":").append(filesUnchanged.sum());
+            sb.append(",\"filesIndexed\":").append(filesIndexed.sum());
+            sb.append(",\"filesHashed\":").append(filesHashed.sum());
+            sb.append(",\"bytesHashed\":").append(bytesHashed.sum());
+            sb.append(",\"queueDepth\":").append(queueDepth.getAsInt());
+            sb.append(",\"peakQueueDepth\":").append(peakQueueDepth.get());
+            sb.append(",\"inFlight\":").append(inFlight.getAsInt());
+            sb.append(",\"errors\":{");
+            String sep = "";
+            for (Map.Entry<String, Long> e : errors().entrySet()) {
+                sb.append(sep).append('"').append(e.getKey()).append("\":").append(e.getValue());
+                sep = ",";
+            }
+            sb.append("},\"latencyNanos\":{\"stat\":").append(stat.toJson())
+                    .append(",\"hash\":").append(hash.toJson())
+                    .append(",\"dbWrite\":").append(dbWrite.toJson()).append("}}");
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Lock-free latency histogram with power-of-two buckets over nanoseconds: bucket {@code b} holds
+     * samples in [2^(b-1), 2^b). Percentiles are reported as the bucket's upper bound, so they are
+     * accurate to within a factor of two, which is enough to see where scan time goes.
+     */
+    static final class LatencyHistogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long nanos) {
+            if (nanos < 0) nanos = 0;
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos));
+            count.increment();
+            total.add(nanos);
+            max.accumulateAndGet(nanos, Math::max);
+        }
+
+        /** Records the time since {@code startNanos}, a {@link System#nanoTime()} reading. */
+        void since(long startNanos) { record(System.nanoTime() - startNanos); }
+
+        long count() { return count.sum(); }
+
+        /** Upper bound of the bucket holding the {@code p}-th percentile (0 < p <= 100), in nanoseconds. */
+        long percentile(double p) {
+            long n = count.sum();
+            if (n == 0) return 0;
+            long rank = (long) Math.ceil(n * p / 100.0), seen = 0;
+            for (int b = 0; b < 64; b++) {
+                seen += buckets.get(b);
+                if (seen >= rank) return Math.min(b == 0 ? 0 : 1L << Math.min(b, 62), max.get());
+            }
+            return max.get();
+        }
+
+        private String row(String label) {
+            return String.format(Locale.US, "%-12s %9d %8s %8s %8s %8s%n", label, count(),
+                    millis(percentile(50)), millis(percentile(90)), millis(percentile(99)), millis(max.get()));
+        }
+
+        private static String millis(long nanos) {
+            return String.format(Locale.US, "%.2fms", nanos / 1e6);
+        }
+
+        String toJson() {
+            long n = count.sum();
+            return "{\"count\":" + n + ",\"mean\":" + (n == 0 ? 0 : total.sum() / n) + ",\"p50\":" + percentile(50) +
+                    ",\"p90\":" + percentile(90) + ",\"p99\":" + percentile(99) + ",\"max\":" + max.get() + "}";
+        }
+    }
+
+    // ===== Indexer (Recursive Scanner) =====
+    static class Indexer {
+        static final int QUEUE_CAPACITY = 10_000;
+        /** Default number of directory-listing threads; 1 keeps the single-threaded walkFileTree walk. */
+        static final int DEFAULT_WALK_PARALLELISM = Integer.getInteger("indexer.walkParallelism", 1);
+
+        private final boolean computeHash;
+        private final boolean incremental;
+        private final Database db;
+        private final JLabel status;
+        private final int threads = Math.max(2, Runtime.getRuntime().availableProcessors()-1);
+        private int walkParallelism = DEFAULT_WALK_PARALLELISM;
+        private boolean virtualThreads = false;
+        private final BlockingQueue<FileRecord> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private final AtomicLong unchanged = new AtomicLong();
+        private Map<String, Database.FileState> known = Collections.emptyMap();
+        private long[] unchangedIds = new long[0]; // guarded by this
+        private final AtomicInteger unreadableDirs = new AtomicInteger(); // or entries; any of them blocks the purge
+        private long scanGen;
+        private volatile ScanMetrics metrics = new ScanMetrics(); // of the current or last scan
+        private Path snapshot;
+
+        Indexer(Database db, boolean computeHash, JLabel status) {
+            this(db, computeHash, false, status);
+        }
+
+        /** @param incremental skip files whose size and last-modified time match the index */
+        Indexer(Database db, boolean computeHash, boolean incremental, JLabel status) {
+            this.db = db; this.computeHash = computeHash; this.incremental = incremental; this.status = status;
+        }
+
+        /**
+         * Runs the duplicate hasher's reads on one virtual thread per file instead of a fixed platform
+         * pool, so blocking network reads do not need an OS thread each. They stay capped at
+         * {@link HashEngine#CONCURRENCY}. The walk itself is unaffected: it only stats, which the walker
+         * threads do anyway, and hands records straight to the writer. Falls back to the platform pool
+         * on JDKs before 21.
+         */
+        Indexer virtualThreads(boolean on) {
+            this.virtualThreads = on;
+            return this;
+        }
+
+        static boolean virtualThreadsSupported() {
+            try {
+                Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return true;
+            } catch (NoSuchMethodException e) {
+                return false;
+            }
+        }
+
+        // Looked up reflectively so the indexer still builds and runs on pre-21 JDKs
+        private static ExecutorService newVirtualThreadExecutor() {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                return null;
+            }
+        }
+
+        /** Writes a {@link MemoryIndex} snapshot of the whole index to {@code file} after each scan that changed it; null for none. */
+        Indexer snapshot(Path file) {
+            this.snapshot = file;
+            return this;
+        }
+
+        /** Number of threads listing directories; values above 1 switch to the fork-join walk. */
+        Indexer walkParallelism(int n) {
+            if (n < 1) throw new IllegalArgumentException("walkParallelism must be positive: " + n);
+            this.walkParallelism = n;
+            return this;
+        }
+
+        /** Indexes {@code root}; progress goes to the status label and to {@link #metrics()}. */
+        public void scan(Path root) {
+            metrics = new ScanMetrics();
+            try {
+                scanTree(root);
+            } finally {
+                metrics.finished();
+            }
+        }
+
+        private void scanTree(Path root) {
+            long started = System.currentTimeMillis();
+            scanGen = started;
+            String prefix = dirPrefix(root);
+            if (incremental) {
+                status.setText("Loading existing index…");
+                try {
+                    known = db.statesUnder(prefix);
+                } catch (SQLException e) {
+                    known = Collections.emptyMap(); // fall back to a full rescan
+                }
+            }
+            status.setText("Scanning…");
+            // The walker blocks on the bounded queue once the writer falls behind, so heap use stays
+            // flat regardless of tree size
+            metrics.queueGauge(queue::size);
+            BatchWriter writer = new BatchWriter(db, queue, status, metrics);
+            Thread writerThread = new Thread(writer, "index-writer");
+            writerThread.start();
+            boolean walked = false;
+            try {
+                if (walkParallelism > 1) walkParallel(root);
+                else walkSequential(root);
+                walked = true;
+            } catch (Exception e) {
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(null, "Scan failed: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE));
+            }
+
+            writer.finish();
+            try { writerThread.join(); } catch (InterruptedException ignored) {}
+            if (writer.failure() != null) {
+                status.setText("Scan failed after " + writer.written() + " files: " + writer.failure().getMessage());
+                return;
+            }
+            try {
+                db.inheritHashes(scanGen);
+            } catch (SQLException e) {
+                // not fatal: affected files are simply hashed again
+            }
+            // Only purge after a complete walk; a partial one would drop files it never reached
+            int removed = 0;
+            if (walked && unreadableDirs.get() == 0) {
+                status.setText("Removing deleted files…");
+                try {
+                    removed = db.purgeUnseen(prefix, scanGen, unchangedIds, (int) unchanged.get());
+                } catch (SQLException e) {
+                    status.setText("Purge of deleted files failed: " + e.getMessage());
+                    return;
+                }
+            }
+            long hashed = 0;
+            if (computeHash) {
+                try {
+                    hashed = hashDuplicates(null);
+                } catch (SQLException e) {
+                    status.setText("Hashing duplicate candidates failed: " + e.getMessage());
+                    return;
+                }
+            }
+            String snap = "";
+            if (snapshot != null) {
+                try {
+                    if (MemoryIndex.stampOf(snapshot) != db.stamp()) { // otherwise nothing changed since it was written
+                        status.setText("Writing index snapshot…");
+                        MemoryIndex.writeSnapshot(db, snapshot);
+                    }
+                } catch (IOException | SQLException | RuntimeException | OutOfMemoryError e) {
+                    metrics.error(e);
+                    snap = " (snapshot not written: " + e.getMessage() + ")"; // searches fall back to SQLite
+                }
+            }
+            long dur = System.currentTimeMillis() - started;
+            String skipped = incremental ? ", unchanged: " + unchanged.get() : "";
+            String hashes = computeHash ? ", hashed: " + hashed : "";
+            status.setText("Scan finished. Files indexed: " + writer.written() + skipped + ", removed: " + removed + hashes + " in " + dur + " ms" + snap);
+        }
+
+        /**
+         * Runs the {@link DuplicateHasher} on this indexer's kind of executor, with its own cap of
+         * {@link HashEngine#CONCURRENCY} reads. {@code sizes} limits it to files of those sizes; null
+         * considers the whole index. Returns the number of files read.
+         */
+        long hashDuplicates(Collection<Long> sizes) throws SQLException {
+            ExecutorService exec = newPool();
+            try {
+                return new DuplicateHasher(db, status, metrics).run(exec, sizes);
+            } finally {
+                exec.shutdownNow();
+            }
+        }
+
+        // One virtual thread per task when enabled and available, otherwise a fixed platform pool whose
+        // queue holds as many tasks as the hasher's semaphore can admit
+        private ExecutorService newPool() {
+            ExecutorService p = virtualThreads ? newVirtualThreadExecutor() : null;
+            if (p != null) return p;
+            return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(HashEngine.CONCURRENCY));
+        }
+
+        /** Live metrics of the running scan, or the final ones of the last scan. */
+        ScanMetrics metrics() { return metrics; }
+
+        /** Rows written by the last scan (new or changed files). */
+        long filesWritten() { return metrics.filesIndexed.sum(); }
+
+        /** Files read by the duplicate hasher in the last scan, and how many bytes that took. */
+        long filesHashed() { return metrics.filesHashed.sum(); }
+
+        long bytesHashed() { return metrics.bytesHashed.sum(); }
+
+        private void walkSequential(Path root) throws IOException {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                // walkFileTree stats internally, so "stat" here is the walker's time per entry between
+                // callbacks (lstat plus its share of directory reads)
+                private long last = System.nanoTime();
+
+                @Override public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    metrics.stat.since(last);
+                    visit(file, attrs);
+                    last = System.nanoTime();
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    // Skip broken or permission-denied entries. Unless the entry is gone, its rows must
+                    // survive the purge: the file may well exist in a directory we cannot search.
+                    metrics.error(exc);
+                    last = System.nanoTime();
+                    if (!(exc instanceof NoSuchFileException)) unreadableDirs.incrementAndGet();
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+
+        /** Lists directories concurrently, one fork-join task per directory, so listing latency overlaps. */
+        private void walkParallel(Path root) throws IOException {
+            BasicFileAttributes rootAttrs = Files.readAttributes(root, BasicFileAttributes.class);
+            if (!rootAttrs.isDirectory()) {
+                visit(root, rootAttrs);
+                return;
+            }
+            ForkJoinPool fj = new ForkJoinPool(walkParallelism);
+            try {
+                fj.invoke(new DirTask(root));
+            } finally {
+                fj.shutdown();
+            }
+        }
+
+        private class DirTask extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+            private final Path dir;
+
+            DirTask(Path dir) { this.dir = dir; }
+
+            @Override protected void compute() {
+                List<DirTask> subdirs = new ArrayList<>();
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                    for (Path p : entries) {
+                        BasicFileAttributes attrs;
+                        long t0 = System.nanoTime();
+                        try {
+                            attrs = Files.readAttributes(p, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                        } catch (IOException e) {
+                            metrics.error(e);
+                            // vanished, or unreadable: then its rows must not be purged as if it were gone
+                            if (!(e instanceof NoSuchFileException)) unreadableDirs.incrementAndGet();
+                            continue;
+                        } finally {
+                            metrics.stat.since(t0);
+                        }
+                        if (attrs.isDirectory()) subdirs.add(new DirTask(p));
+                        else visit(p, attrs);
+                    }
+                } catch (IOException | DirectoryIteratorException e) {
+                    metrics.error(e instanceof DirectoryIteratorException ? e.getCause() : e);
+                    unreadableDirs.incrementAndGet();
+                }
+                invokeAll(subdirs);
+            }
+        }
+
+        /** Called by the walker(s) for every entry that is not a directory. */
+        private void visit(Path file, BasicFileAttributes attrs) {
+            if (!attrs.isRegularFile()) return;
+            metrics.filesWalked.increment();
+            File f = file.toAbsolutePath().toFile();
+            Database.FileState same = incremental ? unchangedState(f.getPath(), attrs) : null;
+            if (same != null) {
+                metrics.filesUnchanged.increment();
+                markUnchanged(same.id);
+            } else {
+                indexOne(f, attrs); // nothing left to read: the walker already has the attributes
+            }
+        }
+
+        static String dirPrefix(Path root) {
+            String p = root.toAbsolutePath().toString();
+            return p.endsWith(File.separator) ? p : p + File.separator;
+        }
+
+        /** Returns the indexed state if the file can be skipped, otherwise null. */
+        private Database.FileState unchangedState(String path, BasicFileAttributes attrs) {
+            Database.FileState s = known.get(path);
+            if (s == null) return null;
+            if (s.size != attrs.size() || s.lastModified != attrs.lastModifiedTime().toMillis()) return null;
+            Object key = attrs.fileKey();
+            if (key != null && s.fileKey != null && !s.fileKey.equals(key.toString())) return null; // replaced by another file
+            return s;
+        }
+
+        private synchronized void markUnchanged(long id) {
+            int n = (int) unchanged.get();
+            if (n == unchangedIds.length) unchangedIds = Arrays.copyOf(unchangedIds, Math.max(1024, n * 2));
+            unchangedIds[n] = id;
+            unchanged.incrementAndGet();
+        }
+
+        private void indexOne(File f, BasicFileAttributes attrs) {
+            try {
+                queue.put(toRecord(f, attrs, scanGen));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                metrics.error(e);
+            }
+        }
+
+        static FileRecord toRecord(File f, BasicFileAttributes attrs, long scanGen) {
+            FileRecord r = new FileRecord();
+            r.path = f.getAbsolutePath();
+            r.name = f.getName();
+            r.extension = getExtension(f.getName());
+            r.size = attrs.size();
+            r.lastModified = attrs.lastModifiedTime().toMillis();
+            r.indexedAt = System.currentTimeMillis();
+            r.scanGen = scanGen;
+            r.fileKey = attrs.fileKey() == null ? null : attrs.fileKey().toString();
+            return r;
+        }
+
+        /**
+         * SHA-256 over the first and last {@code edge} bytes of a file (the whole file when it is no longer
+         * than {@code 2 * edge}). Returns null if the file cannot be read.
+         */
+        static String partialHash(File f, long size, int edge) {
+            try {
+                return HashEngine.toHex(HashEngine.edges(f.toPath(), size, edge));
+            } catch (Exception e) {
+                return null;
+            }
+        }
+
+        static String sha256(File f) {
+            try {
+                return HashEngine.toHex(HashEngine.sha256(f.toPath()));
+            } catch (Exception e) {
+                return null; // can't hash -> leave null
+            }
+        }
+    }
+
+    // ===== Hashing =====
+    /**
+     * SHA-256 over {@link FileChannel}s: files up to {@link #MMAP_THRESHOLD} are read through a direct
+     * buffer of {@link #BUFFER_SIZE}, larger ones are digested straight from memory-mapped regions of
+     * {@link #MAP_REGION}. Each hash checks a digest and its buffer out of a pool of at most
+     * {@link #CONCURRENCY}, created on first use and waited for when all are out, so buffers are reused
+     * and bounded whatever threads hash (one virtual thread per file makes per-thread ones useless).
+     * Hex encoding goes through a lookup table instead of a formatter per byte.
+     */
+    static final class HashEngine {
+        static final int BUFFER_SIZE = 1 << 20;
+        static final long MMAP_THRESHOLD = 16L << 20;
+        static final long MAP_REGION = 256L << 20;
+        /** Most files hashed at once, and so most buffers allocated; override with -Dindexer.hashConcurrency. */
+        static final int CONCURRENCY = Math.max(1, Integer.getInteger("indexer.hashConcurrency", 32));
+        private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+        private static final class Scratch {
+            final MessageDigest md;
+            final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+            Scratch() {
+                try {
+                    md = MessageDigest.getInstance("SHA-256");
+                } catch (NoSuchAlgorithmException e) {
+                    throw new IllegalStateException(e); // every JRE must provide SHA-256
+                }
+            }
+        }
+
+        private static final BlockingQueue<Scratch> SCRATCH = new ArrayBlockingQueue<>(CONCURRENCY);
+        private static final AtomicInteger CREATED = new AtomicInteger();
+
+        private HashEngine() {}
+
+        private static Scratch checkOut() throws InterruptedIOException {
+            Scratch s = SCRATCH.poll();
+            if (s != null) return s;
+            for (int n = CREATED.get(); n < CONCURRENCY; n = CREATED.get()) {
+                if (!CREATED.compareAndSet(n, n + 1)) continue;
+                try {
+                    return new Scratch();
+                } catch (RuntimeException | Error e) {
+                    CREATED.decrementAndGet(); // or take() below could wait for a pair that never exists
+                    throw e;
+                }
+            }
+            try {
+                return SCRATCH.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for a hash buffer");
+            }
+        }
+
+        private static void checkIn(Scratch s) {
+            s.md.reset();
+            SCRATCH.offer(s); // never full: at most CONCURRENCY exist
+        }
+
+        static byte[] sha256(Path file) throws IOException {
+            Scratch s = checkOut();
+            try {
+                return sha256(file, s.md, s.buf);
+            } finally {
+                checkIn(s);
+            }
+        }
+
+        private static byte[] sha256(Path file, MessageDigest md, ByteBuffer buf) throws IOException {
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+                long size = ch.size();
+                if (size >= MMAP_THRESHOLD) {
+                    for (long pos = 0; pos < size; pos += MAP_REGION) {
+                        md.update(ch.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(MAP_REGION, size - pos)));
+                    }
+                } else {
+                    buf.clear();
+                    while (ch.read(buf) != -1) {
+                        buf.flip();
+                        md.update(buf);
+                        buf.clear();
+                    }
+                }
+            }
+            return md.digest();
+        }
+
+        /** SHA-256 of the first and last {@code edge} bytes, or of the whole file when size <= 2 * edge. */
+        static byte[] edges(Path file, long size, int edge) throws IOException {
+            Scratch s = checkOut();
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+                if (size <= 2L * edge) {
+                    digestRange(ch, s.md, s.buf, 0, size);
+                } else {
+                    digestRange(ch, s.md, s.buf, 0, edge);
+                    digestRange(ch, s.md, s.buf, size - edge, edge);
+                }
+                return s.md.digest();
+            } finally {
+                checkIn(s);
+            }
+        }
+
+        private static void digestRange(FileChannel ch, MessageDigest md, ByteBuffer buf, long pos, long len) throws IOException {
+            long end = pos + len;
+            while (pos < end) {
+                buf.clear();
+                buf.limit((int) Math.min(buf.capacity(), end - pos));
+                int n = ch.read(buf, pos);
+                if (n < 0) break; // file shrank since it was stat'ed
+                buf.flip();
+                md.update(buf);
+                pos += n;
+            }
+        }
+
+        static byte[] fromHex(String hex) {
+            byte[] out = new byte[hex.length() / 2];
+            for (int i = 0; i < out.length; i++) {
+                out[i] = (byte) ((Character.digit(hex.charAt(2 * i), 16) << 4) | Character.digit(hex.charAt(2 * i + 1), 16));
+            }
+            return out;
+        }
+
+        static String toHex(byte[] bytes) {
+            char[] out = new char[bytes.length * 2];
+            for (int i = 0; i < bytes.length; i++) {
+                out[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+                out[2 * i + 1] = HEX[bytes[i] & 0xf];
+            }
+            return new String(out);
+        }
+    }
+
+    // ===== Ingestion (single writer) =====
+    /**
+     * Sole owner of the write path during a scan: drains records produced by the
+     * walker(s) and upserts them through one reused statement, committing every
+     * {@link #BATCH_SIZE} rows or {@link #BATCH_MILLIS} ms, whichever comes first.
+     */
+    static class BatchWriter implements Runnable {
+        static final int BATCH_SIZE = 1000;
+        static final long BATCH_MILLIS = 500;
+        private static final FileRecord END = new FileRecord();
+
+        private final Database db;
+        private final BlockingQueue<FileRecord> queue;
+        private final JLabel status;
+        private final ScanMetrics metrics;
+        private volatile Exception failure;
+        private boolean ended = false;
+
+        BatchWriter(Database db, BlockingQueue<FileRecord> queue, JLabel status, ScanMetrics metrics) {
+            this.db = db; this.queue = queue; this.status = status; this.metrics = metrics;
+        }
+
+        /** Signals that no more records will be produced; the writer flushes and exits. */
+        void finish() {
+            try { queue.put(END); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        }
+
+        long written() { return metrics.filesIndexed.sum(); }
+
+        Exception failure() { return failure; }
+
+        @Override public void run() {
+            try (Database.UpsertBatch batch = db.upsertBatch()) {
+                long lastFlush = System.currentTimeMillis();
+                long n = 0;
+                while (true) {
+                    metrics.sampleQueue(queue.size());
+                    FileRecord r = queue.poll(BATCH_MILLIS, TimeUnit.MILLISECONDS);
+                    if (r == END) { ended = true; break; }
+                    if (r != null) {
+                        batch.add(r);
+                        metrics.filesIndexed.increment();
+                        if (++n % 200 == 0) status.setText("Indexed " + n + " files…");
+                    }
+                    if (batch.pending() >= BATCH_SIZE || System.currentTimeMillis() - lastFlush >= BATCH_MILLIS) {
+                        flush(batch);
+                        lastFlush = System.currentTimeMillis();
+                    }
+                }
+                flush(batch);
+            } catch (Exception e) {
+                failure = e;
+                metrics.error(e);
+                // Keep draining so producers blocked on a full queue can finish
+                try { while (!ended && queue.take() != END) { /* discard */ } } catch (InterruptedException ignored) {}
+            }
+        }
 
-        Database() throws SQLException {
-            conn = DriverManager.getConnection(DB_URL);
-            conn.setAutoCommit(false);
-            init();
+        private void flush(Database.UpsertBatch batch) throws SQLException {
+            if (batch.pending() == 0) return;
+            long t0 = System.nanoTime();
+            batch.flush();
+            metrics.dbWrite.since(t0);
         }
+    }
 
-        private void init() throws SQLException {
-            try (Statement st = conn.createStatement()) {
-                st.execute("PRAGMA journal_mode=WAL");
-                st.execute("PRAGMA synchronous=NORMAL");
-                st.execute("CREATE TABLE IF NOT EXISTS files (\n" +
-                        "  id INTEGER PRIMARY KEY,\n" +
-                        "  path TEXT UNIQUE,\n" +
-                        "  name TEXT,\n" +
-                        "  extension TEXT,\n" +
-                        "  size INTEGER,\n" +
-                        "  last_modified INTEGER,\n" +
-                        "  indexed_at INTEGER,\n" +
-                        "  sha256 TEXT\n" +
-                        ")");
-                st.execute("CREATE INDEX IF NOT EXISTS idx_files_name ON files(name)");
-                st.execute("CREATE INDEX IF NOT EXISTS idx_files_ext ON files(extension)");
-                st.execute("CREATE INDEX IF NOT EXISTS idx_files_size ON files(size)");
-                st.execute("CREATE INDEX IF NOT EXISTS idx_files_lastmod ON files(last_modified)");
-                st.execute("CREATE INDEX IF NOT EXISTS idx_files_sha ON files(sha256)");
+    // ===== Duplicate detection =====
+    /**
+     * Hashes only what can possibly be a duplicate, in stages: rows are grouped by size, rows sharing a
+     * size get a cheap hash of their first and last {@link #EDGE_BYTES}, and only rows that still
+     * collide get a full SHA-256. Files whose size or partial hash is unique never get a full hash,
+     * which is fine for {@link Database#duplicates()} since it only matches rows with equal sha256.
+     * Files no larger than two edges are read whole in stage 2, so their partial hash is the full hash.
+     * Reads run on the caller's executor, at most {@link HashEngine#CONCURRENCY} at once: that many
+     * buffers exist, however many files the scan itself may have had in flight.
+     */
+    static class DuplicateHasher {
+        static final int EDGE_BYTES = 64 * 1024;
+        static final int CHUNK = 512;
+
+        private final Database db;
+        private final JLabel status;
+        private final ScanMetrics metrics;
+
+        DuplicateHasher(Database db, JLabel status, ScanMetrics metrics) {
+            this.db = db; this.status = status; this.metrics = metrics;
+        }
+
+        /**
+         * Runs both hashing stages and returns the number of files read. {@code sizes} limits them to
+         * files of those sizes, e.g. the ones a batch of live changes wrote; null covers the whole index.
+         */
+        long run(ExecutorService exec, Collection<Long> sizes) throws SQLException {
+            Semaphore inFlight = new Semaphore(HashEngine.CONCURRENCY);
+            metrics.inFlightGauge(() -> HashEngine.CONCURRENCY - inFlight.availablePermits());
+            List<Database.HashCandidate> partial = db.partialHashCandidates(sizes);
+            hashAll(exec, inFlight, partial, "Comparing same-size files", c -> {
+                c.partialHash = timed(Math.min(c.size, 2L * EDGE_BYTES), () -> HashEngine.edges(Paths.get(c.path), c.size, EDGE_BYTES));
+                if (c.size <= 2L * EDGE_BYTES) c.sha256 = c.partialHash;
+            });
+            List<Database.HashCandidate> full = db.fullHashCandidates(sizes);
+            hashAll(exec, inFlight, full, "Hashing possible duplicates",
+                    c -> c.sha256 = timed(c.size, () -> HashEngine.sha256(Paths.get(c.path))));
+            return partial.size() + full.size();
+        }
+
+        private interface Digest { byte[] compute() throws IOException; }
+
+        // One file's hash with its latency and bytes recorded; null (and an error count) if unreadable
+        private String timed(long bytes, Digest digest) {
+            long t0 = System.nanoTime();
+            try {
+                String hex = HashEngine.toHex(digest.compute());
+                metrics.filesHashed.increment();
+                metrics.bytesHashed.add(bytes);
+                return hex;
+            } catch (Exception e) {
+                metrics.error(e);
+                return null;
+            } finally {
+                metrics.hash.since(t0);
             }
-            conn.commit();
         }
 
-        public void upsert(FileRecord r) throws SQLException {
-            String sql = "INSERT INTO files(path,name,extension,size,last_modified,indexed_at,sha256)\n" +
-                    "VALUES(?,?,?,?,?,?,?)\n" +
-                    "ON CONFLICT(path) DO UPDATE SET name=excluded.name, extension=excluded.extension, size=excluded.size,\n" +
-                    " last_modified=excluded.last_modified, indexed_at=excluded.indexed_at, sha256=COALESCE(excluded.sha256, files.sha256)";
-            try (PreparedStatement ps = conn.prepareStatement(sql)) {
-                ps.setString(1, r.path);
-                ps.setString(2, r.name);
-                ps.setString(3, r.extension);
-                ps.setLong(4, r.size);
-                ps.setLong(5, r.lastModified);
-                ps.setLong(6, r.indexedAt);
-                if (r.sha256 == null) ps.setNull(7, Types.VARCHAR);
-                else ps.setString(7, r.sha256);
-                ps.executeUpdate();
+        // Hashes in parallel chunks; results are written from this thread only
+        private void hashAll(ExecutorService exec, Semaphore inFlight, List<Database.HashCandidate> list, String label,
+                             Consumer<Database.HashCandidate> hasher) throws SQLException {
+            for (int from = 0; from < list.size(); from += CHUNK) {
+                List<Database.HashCandidate> chunk = list.subList(from, Math.min(list.size(), from + CHUNK));
+                List<Future<?>> tasks = new ArrayList<>(chunk.size());
+                try {
+                    for (Database.HashCandidate c : chunk) {
+                        inFlight.acquire();
+                        tasks.add(exec.submit(() -> {
+                            try { hasher.accept(c); } finally { inFlight.release(); }
+                        }));
+                    }
+                    for (Future<?> t : tasks) t.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause()); // hasher catches I/O itself; anything else is a bug
+                }
+                db.updateHashes(chunk);
+                status.setText(label + "… " + Math.min(list.size(), from + CHUNK) + "/" + list.size());
             }
         }
+    }
 
-        public List<FileRecord> search(String nameLike, String ext, Long minSize, Long maxSize,
-                                       Long minDate, Long maxDate, String orderBy, boolean desc, int limit, int offset) throws SQLException {
-            StringBuilder sb = new StringBuilder("SELECT id,path,name,extension,size,last_modified,indexed_at,sha256 FROM files WHERE 1=1");
-            List<Object> params = new ArrayList<>();
-            if (nameLike != null && !nameLike.isEmpty()) {
-                sb.append(" AND name LIKE ?");
-                params.add("%" + nameLike + "%");
-            }
-            if (ext != null && !ext.isEmpty()) {
-                sb.append(" AND extension = ?");
-                params.add(ext.toLowerCase());
-            }
-            if (minSize != null) { sb.append(" AND size >= ?"); params.add(minSize); }
-            if (maxSize != null) { sb.append(" AND size <= ?"); params.add(maxSize); }
-            if (minDate != null) { sb.append(" AND last_modified >= ?"); params.add(minDate); }
-            if (maxDate != null) { sb.append(" AND last_modified <= ?"); params.add(maxDate); }
-            if (orderBy == null || orderBy.isEmpty()) orderBy = "name";
-            sb.append(" ORDER BY ").append(orderBy).append(desc ? " DESC" : " ASC");
-            sb.append(" LIMIT ? OFFSET ?");
-            params.add(limit);
-            params.add(offset);
+    // ===== Live index maintenance =====
+    /**
+     * Keeps the index in sync with a scanned tree using {@link WatchService}. Events are coalesced per
+     * path until the tree has been quiet for {@link #QUIET_MILLIS} (or {@link #MAX_DELAY_MILLIS} has
+     * passed), then the current on-disk state of each touched path is applied as one batch.
+     * New directories and OVERFLOW are handled by an incremental rescan of the affected subtree.
+     */
+    static class Watcher implements Runnable, AutoCloseable {
+        static final long QUIET_MILLIS = 500;
+        static final long MAX_DELAY_MILLIS = 5000;
 
-            try (PreparedStatement ps = conn.prepareStatement(sb.toString())) {
-                for (int i = 0; i < params.size(); i++) {
-                    Object p = params.get(i);
-                    if (p instanceof String) ps.setString(i + 1, (String) p);
-                    else if (p instanceof Long) ps.setLong(i + 1, (Long) p);
-                    else throw new IllegalArgumentException("Unsupported param type: " + p);
-                }
-                ResultSet rs = ps.executeQuery();
-                List<FileRecord> list = new ArrayList<>();
-                while (rs.next()) {
-                    FileRecord r = new FileRecord();
-                    r.id = rs.getLong(1);
-                    r.path = rs.getString(2);
-                    r.name = rs.getString(3);
-                    r.extension = rs.getString(4);
-                    r.size = rs.getLong(5);
-                    r.lastModified = rs.getLong(6);
-                    r.indexedAt = rs.getLong(7);
-                    r.sha256 = rs.getString(8);
-                    list.add(r);
+        private final Path root;
+        private final boolean computeHash;
+        private final boolean virtualThreads;
+        private final JLabel status;
+        private final WatchService ws;
+        private final Map<WatchKey, Path> keys = new HashMap<>();
+        private final Set<Path> watchedDirs = new HashSet<>();
+        private final Set<Path> touched = new LinkedHashSet<>();
+        private final Set<Path> rescans = new LinkedHashSet<>();
+        private volatile boolean closed = false;
+        private volatile Thread thread;
+
+        /** @param virtualThreads hash on virtual threads, as the scan did */
+        Watcher(Path root, boolean computeHash, boolean virtualThreads, JLabel status) throws IOException {
+            this.root = root.toAbsolutePath();
+            this.computeHash = computeHash;
+            this.virtualThreads = virtualThreads;
+            this.status = status;
+            this.ws = root.getFileSystem().newWatchService();
+        }
+
+        /** Starts watching on a daemon thread. */
+        void start() {
+            Thread t = new Thread(this, "watch-thread");
+            t.setDaemon(true);
+            thread = t;
+            t.start();
+        }
+
+        @Override public void run() {
+            try (Database db = new Database()) {
+                registerTree(root);
+                status.setText("Watching " + root + " for changes…");
+                long firstPending = 0;
+                while (!closed) {
+                    boolean pending = !touched.isEmpty() || !rescans.isEmpty();
+                    WatchKey key = pending ? ws.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS) : ws.take();
+                    if (key != null) {
+                        collect(key);
+                        long now = System.currentTimeMillis();
+                        if (firstPending == 0) firstPending = now;
+                        if (now - firstPending < MAX_DELAY_MILLIS) continue;
+                    }
+                    apply(db);
+                    firstPending = 0;
                 }
-                return list;
+            } catch (ClosedWatchServiceException | InterruptedException e) {
+                // stopped
+            } catch (Exception e) {
+                if (!closed) status.setText("Watch stopped: " + e.getMessage());
             }
         }
 
-        public List<FileRecord> recent(int limit) throws SQLException {
-            try (PreparedStatement ps = conn.prepareStatement(
-                    "SELECT id,path,name,extension,size,last_modified,indexed_at,sha256 FROM files ORDER BY indexed_at DESC LIMIT ?")) {
-                ps.setInt(1, limit);
-                ResultSet rs = ps.executeQuery();
-                List<FileRecord> list = new ArrayList<>();
-                while (rs.next()) {
-                    FileRecord r = new FileRecord();
-                    r.id = rs.getLong(1);
-                    r.path = rs.getString(2);
-                    r.name = rs.getString(3);
-                    r.extension = rs.getString(4);
-                    r.size = rs.getLong(5);
-                    r.lastModified = rs.getLong(6);
-                    r.indexedAt = rs.getLong(7);
-                    r.sha256 = rs.getString(8);
-                    list.add(r);
+        private void collect(WatchKey key) {
+            Path dir = keys.get(key);
+            for (WatchEvent<?> ev : key.pollEvents()) {
+                if (dir == null) continue;
+                if (ev.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    rescans.add(dir);
+                } else {
+                    touched.add(dir.resolve((Path) ev.context()));
                 }
-                return list;
             }
+            if (!key.reset()) watchedDirs.remove(keys.remove(key)); // directory is gone
         }
 
-        public List<FileRecord> duplicates() throws SQLException {
-            // Duplicate by same size AND same hash (hash may be NULL; require not null)
-            String sql = "SELECT f.id,f.path,f.name,f.extension,f.size,f.last_modified,f.indexed_at,f.sha256\n" +
-                    " FROM files f JOIN (SELECT sha256, size, COUNT(*) c FROM files WHERE sha256 IS NOT NULL GROUP BY sha256,size HAVING c>1) d\n" +
-                    " ON f.sha256=d.sha256 AND f.size=d.size ORDER BY d.size DESC, f.name";
-            try (PreparedStatement ps = conn.prepareStatement(sql)) {
-                ResultSet rs = ps.executeQuery();
-                List<FileRecord> list = new ArrayList<>();
-                while (rs.next()) {
-                    FileRecord r = new FileRecord();
-                    r.id = rs.getLong(1);
-                    r.path = rs.getString(2);
-                    r.name = rs.getString(3);
-                    r.extension = rs.getString(4);
-                    r.size = rs.getLong(5);
-                    r.lastModified = rs.getLong(6);
-                    r.indexedAt = rs.getLong(7);
-                    r.sha256 = rs.getString(8);
-                    list.add(r);
+        private void apply(Database db) throws SQLException, IOException {
+            long gen = System.currentTimeMillis();
+            List<String> deleted = new ArrayList<>();
+            int upserted = 0;
+            try (Database.UpsertBatch batch = db.upsertBatch()) {
+                for (Path p : touched) {
+                    BasicFileAttributes attrs;
+                    try {
+                        attrs = Files.readAttributes(p, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    } catch (IOException e) {
+                        deleted.add(p.toString());
+                        continue;
+                    }
+                    if (attrs.isDirectory()) {
+                        if (!watchedDirs.contains(p)) rescans.add(p);
+                    } else if (attrs.isRegularFile()) {
+                        batch.add(Indexer.toRecord(p.toFile(), attrs, gen));
+                        upserted++;
+                    }
                 }
-                return list;
             }
+            touched.clear();
+            db.inheritHashes(gen); // before deleting, so renamed files find their old row
+            if (!deleted.isEmpty()) db.deletePaths(deleted);
+            for (Path dir : rescans) {
+                if (closed) return;
+                if (!Files.isDirectory(dir)) continue;
+                registerTree(dir);
+                new Indexer(db, false, true, status).scan(dir);
+            }
+            rescans.clear();
+            // Only sizes written by this batch (upserts and rescans alike) can have gained a duplicate;
+            // the candidate queries then touch those sizes instead of grouping the whole table
+            if (computeHash && !closed) {
+                Set<Long> sizes = db.sizesWrittenSince(gen);
+                if (!sizes.isEmpty()) new Indexer(db, true, status).virtualThreads(virtualThreads).hashDuplicates(sizes);
+            }
+            status.setText("Watching " + root + " — updated " + upserted + ", removed " + deleted.size());
         }
 
-        public void commit() throws SQLException { conn.commit(); }
+        private void registerTree(Path start) throws IOException {
+            Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+                @Override public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    if (watchedDirs.add(dir)) {
+                        keys.put(dir.register(ws, StandardWatchEventKinds.ENTRY_CREATE,
+                                StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY), dir);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
 
+        /** Stops taking events and abandons a batch being applied at its next interruptible step. */
         @Override public void close() {
-            try { conn.commit(); } catch (Exception ignored) {}
-            try { conn.close(); } catch (Exception ignored) {}
+            closed = true;
+            try { ws.close(); } catch (IOException ignored) {}
+            Thread t = thread;
+            if (t != null) t.interrupt();
+        }
+
+        /**
+         * Waits for the watch thread to exit after {@link #close()}. Its connection, and with it the
+         * cached directory ids, is closed by then, so a scan started afterwards is the only writer.
+         */
+        void join() throws InterruptedException {
+            Thread t = thread;
+            if (t != null) t.join();
         }
     }
 
-    // ===== Indexer (Recursive Scanner) =====
-    static class Indexer {
-        private final boolean computeHash;
-        private final Database db;
-        private final JLabel status;
-        private final ThreadPoolExecutor pool = (ThreadPoolExecutor) Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()-1));
-        private volatile long filesSeen = 0;
+    // ===== Search scheduling =====
+    /**
+     * Runs GUI queries one at a time on a single background thread. Submitting a query cancels the
+     * one in flight and drops any still queued, and only the most recent submission's result (or
+     * error) is delivered to the EDT, so out-of-order results can never reach the table.
+     * Secondary queries (total counts, speculative prefetches) run on a second thread and are
+     * cancelled the same way by the next submission, except a prefetch of the very page that
+     * submission asks for: the search waits for it instead of running it a second time.
+     * Exact counts, which read every match, run on a third thread over their own connection, so
+     * the pages and table windows loaded meanwhile never queue behind them.
+     *
+     * A cancelled task's thread is interrupted and its statement aborted. The reader refuses to start
+     * a statement on an interrupted thread, so a cancel that lands before a task's first statement,
+     * or between two, stops it as well.
+     */
+    static class SearchScheduler {
+        interface Query<T> { T run(Database db) throws SQLException; }
+        interface DbSource { Database get() throws SQLException; }
+        private interface Work { void run(Database db) throws SQLException; }
 
-        Indexer(Database db, boolean computeHash, JLabel status) {
-            this.db = db; this.computeHash = computeHash; this.status = status;
+        /** A single-threaded executor with the connection its tasks use and what it runs right now. */
+        private static final class Lane {
+            final ExecutorService exec;
+            final DbSource source;
+            volatile Thread thread;
+            volatile Database active; // connection of the last task started
+            volatile Object runningKey; // key of the pending task running now
+
+            Lane(String name, int priority, DbSource source) {
+                this.source = source;
+                exec = Executors.newSingleThreadExecutor(r -> {
+                    Thread t = new Thread(r, name);
+                    t.setDaemon(true);
+                    t.setPriority(priority);
+                    thread = t;
+                    return t;
+                });
+            }
+
+            Database open() throws SQLException {
+                Database d = source.get();
+                active = d;
+                return d;
+            }
+
+            // Aborts the statement this lane's thread is running, if any
+            void cancelRunning() {
+                Database d = active;
+                if (d != null) d.cancelRunning(thread);
+            }
         }
 
-        public void scan(Path root) {
-            filesSeen = 0;
-            status.setText("Scanning…");
-            long started = System.currentTimeMillis();
-            try {
-                Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
-                    @Override public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
-                        if (attrs.isRegularFile()) {
-                            pool.submit(() -> indexOne(file.toFile(), attrs));
+        private final Lane search, secondary, exact;
+        private final AtomicLong latest = new AtomicLong();
+        private final Map<Object, Future<?>> pending = new ConcurrentHashMap<>(); // secondary and exact tasks by key, until done
+        private volatile Future<?> searching; // the last submitted search
+
+        /** {@code source} serves searches and secondary queries; {@code countSource} only exact counts. */
+        SearchScheduler(DbSource source, DbSource countSource) {
+            search = new Lane("search-thread", Thread.NORM_PRIORITY, source);
+            secondary = new Lane("search-background", Thread.MIN_PRIORITY, source);
+            exact = new Lane("search-count", Thread.MIN_PRIORITY, countSource);
+        }
+
+        <T> void submit(Query<T> query, Consumer<T> onResult, Consumer<Exception> onError) {
+            submit(null, query, onResult, onError);
+        }
+
+        /**
+         * As {@link #submit(Query, Consumer, Consumer)}, for a query whose answer a {@link #prefetch}
+         * under {@code key} may be computing already. That prefetch is left running, and the query
+         * starts once it is done, usually answering from the cache it filled.
+         */
+        <T> void submit(Object key, Query<T> query, Consumer<T> onResult, Consumer<Exception> onError) {
+            long seq = supersede(key);
+            Future<?> prefetch = key == null ? null : pending.get(key);
+            searching = search.exec.submit(() -> {
+                if (seq != latest.get()) return; // superseded while queued
+                try {
+                    if (prefetch != null) {
+                        try {
+                            prefetch.get();
+                        } catch (ExecutionException | CancellationException ignored) {
+                            // nothing cached: the query below runs it
                         }
-                        return FileVisitResult.CONTINUE;
                     }
+                    T result = query.run(search.open());
+                    SwingUtilities.invokeLater(() -> { if (seq == latest.get()) onResult.accept(result); });
+                } catch (Exception ex) {
+                    SwingUtilities.invokeLater(() -> { if (seq == latest.get()) onError.accept(ex); });
+                }
+            });
+        }
 
-                    @Override public FileVisitResult visitFileFailed(Path file, IOException exc) {
-                        // Skip broken or permission-denied files
-                        return FileVisitResult.CONTINUE;
-                    }
-                });
-            } catch (Exception e) {
-                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(null, "Scan failed: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE));
+        /**
+         * Drops queued searches, prefetches and counts and cancels the queries running, e.g. when the
+         * GUI answers from a cache itself. Returns the sequence number of the new current search.
+         */
+        long supersede() { return supersede(null); }
+
+        // As supersede(), but spares the secondary task under keep
+        private long supersede(Object keep) {
+            long seq = latest.incrementAndGet();
+            Future<?> running = searching;
+            if (running != null) running.cancel(true);
+            for (Map.Entry<Object, Future<?>> e : pending.entrySet()) {
+                if (!e.getKey().equals(keep)) e.getValue().cancel(true);
             }
+            search.cancelRunning();
+            if (keep == null || !keep.equals(secondary.runningKey)) secondary.cancelRunning();
+            exact.cancelRunning();
+            return seq;
+        }
 
-            pool.shutdown();
-            try { pool.awaitTermination(365, TimeUnit.DAYS); } catch (InterruptedException ignored) {}
-            try { db.commit(); } catch (SQLException ignored) {}
-            long dur = System.currentTimeMillis() - started;
-            status.setText("Scan finished. Files indexed: " + filesSeen + " in " + dur + " ms");
+        /**
+         * Runs {@code query} on the second thread without superseding the current search, and hands
+         * its result to the EDT unless a search was submitted meanwhile. Failures are ignored; the
+         * search itself reports them.
+         */
+        <T> void background(Query<T> query, Consumer<T> onResult) { deliver(secondary, query, onResult); }
+
+        /**
+         * As {@link #background}, on the count thread and its own connection: for queries that read
+         * every match, such as an exact count, which would hold up the shared reader for as long.
+         */
+        <T> void exact(Query<T> query, Consumer<T> onResult) { deliver(exact, query, onResult); }
+
+        /**
+         * Runs {@code query} on the second thread only for its side effects, such as filling a cache.
+         * {@code key} names what it computes: a prefetch already queued or running under an equal key
+         * is not repeated, and a {@link #submit(Object, Query, Consumer, Consumer) submission} of that
+         * key waits for it rather than cancelling it.
+         */
+        void prefetch(Object key, Query<?> query) { enqueue(secondary, key, query::run); }
+
+        private <T> void deliver(Lane lane, Query<T> query, Consumer<T> onResult) {
+            long seq = latest.get();
+            enqueue(lane, new Object(), d -> {
+                if (seq != latest.get()) return; // the user moved on
+                T result = query.run(d);
+                SwingUtilities.invokeLater(() -> { if (seq == latest.get()) onResult.accept(result); });
+            });
         }
 
-        private void indexOne(File f, BasicFileAttributes attrs) {
-            try {
-                FileRecord r = new FileRecord();
-                r.path = f.getAbsolutePath();
-                r.name = f.getName();
-                r.extension = getExtension(f.getName());
-                r.size = attrs.size();
-                r.lastModified = attrs.lastModifiedTime().toMillis();
-                r.indexedAt = System.currentTimeMillis();
-                if (computeHash) r.sha256 = sha256(f);
-                db.upsert(r);
-                long n = ++filesSeen;
-                if (n % 500 == 0) db.commit();
-                if (n % 200 == 0) status.setText("Indexed " + n + " files…");
-            } catch (Exception ignored) { }
-        }
-
-        private static String sha256(File f) {
-            try (DigestInputStream dis = new DigestInputStream(new FileInputStream(f), MessageDigest.getInstance("SHA-256"))) {
-                byte[] buf = new byte[8192];
-                while (dis.read(buf) != -1) { /* stream */ }
-                byte[] hash = dis.getMessageDigest().digest();
-                StringBuilder sb = new StringBuilder();
-                for (byte b : hash) sb.append(String.format("%02x", b));
-                return sb.toString();
-            } catch (Exception e) {
-                return null; // can't hash -> leave null
+        private void enqueue(Lane lane, Object key, Work work) {
+            FutureTask<Void> task = new FutureTask<Void>(() -> {
+                lane.runningKey = key;
+                try {
+                    work.run(lane.open());
+                } catch (SQLException ignored) {
+                    // cancelled by a newer search, or the same error the search itself will show
+                } finally {
+                    lane.runningKey = null;
+                }
+                return null;
+            }) {
+                @Override protected void done() { pending.remove(key, this); }
+            };
+            if (pending.putIfAbsent(key, task) == null) lane.exec.execute(task);
+        }
+    }
+
+    /**
+     * LRU cache of search pages keyed by filter, cursor and page size, and of total counts keyed by
+     * filter, so paging back and forth or re-running a filter does not go back to the engine. Any
+     * commit in this process (a scan batch, a watcher update) empties it, and an entry only answers
+     * for the engine that produced it, so switching between SQLite and the in-memory index never
+     * serves the other's rows. Bounded by the total number of cached rows rather than pages, since
+     * page sizes vary.
+     */
+    static final class ResultCache {
+        static final int MAX_ROWS = 20_000;
+
+        private static final class Key {
+            final SearchFilter filter;
+            final Database.Cursor after;
+            final int limit;
+
+            Key(SearchFilter filter, Database.Cursor after, int limit) { this.filter = filter; this.after = after; this.limit = limit; }
+
+            @Override public boolean equals(Object o) {
+                if (!(o instanceof Key)) return false;
+                Key k = (Key) o;
+                return limit == k.limit && filter.equals(k.filter) && Objects.equals(after, k.after);
+            }
+
+            @Override public int hashCode() { return (filter.hashCode() * 31 + Objects.hashCode(after)) * 31 + limit; }
+        }
+
+        private static final class Entry {
+            final SearchIndex engine;
+            final Object value; // a Page, or a Count under a COUNT key
+            final int rows;
+
+            Entry(SearchIndex engine, Object value, int rows) { this.engine = engine; this.value = value; this.rows = rows; }
+        }
+
+        private static final int COUNT = -1; // Key.limit of total counts
+
+        /** Identifies what {@link #search} caches for these arguments, e.g. to track a prefetch of it. */
+        static Object key(SearchFilter f, Database.Cursor after, int limit) { return new Key(f, after, limit); }
+
+        private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+        private long commits = Database.commits();
+        private int rows;
+
+        /** {@code engine.search(f, limit, after)}, answered from the cache when an equal search is still current. */
+        Database.Page search(SearchIndex engine, SearchFilter f, int limit, Database.Cursor after) throws SQLException {
+            Key key = new Key(f, after, limit);
+            long seen = Database.commits(); // read first: a commit during the search leaves the entry already stale
+            Database.Page page = (Database.Page) lookup(engine, key, seen);
+            if (page != null) return page;
+            Database.Page found = engine.search(f, limit, after);
+            page = new Database.Page(Collections.unmodifiableList(found.rows), found.next);
+            store(engine, key, seen, page, page.rows.size());
+            return page;
+        }
+
+        /** {@code engine.estimateCount(f)}, cached like pages. */
+        Database.Count count(SearchIndex engine, SearchFilter f) throws SQLException {
+            Key key = new Key(f, null, COUNT);
+            long seen = Database.commits();
+            Database.Count count = (Database.Count) lookup(engine, key, seen);
+            if (count != null) return count;
+            count = engine.estimateCount(f);
+            store(engine, key, seen, count, 1);
+            return count;
+        }
+
+        /** The cached page for this search if it is still current, else null; never queries. */
+        Database.Page peek(SearchIndex engine, SearchFilter f, int limit, Database.Cursor after) {
+            return (Database.Page) lookup(engine, new Key(f, after, limit), Database.commits());
+        }
+
+        /** The cached total for this filter if it is still current, else null; never queries. */
+        Database.Count peekCount(SearchIndex engine, SearchFilter f) {
+            return (Database.Count) lookup(engine, new Key(f, null, COUNT), Database.commits());
+        }
+
+        synchronized void clear() {
+            entries.clear();
+            rows = 0;
+        }
+
+        private synchronized Object lookup(SearchIndex engine, Key key, long current) {
+            invalidateIfStale(current);
+            Entry e = entries.get(key);
+            return e != null && e.engine == engine ? e.value : null;
+        }
+
+        private synchronized void store(SearchIndex engine, Key key, long seen, Object value, int weight) {
+            invalidateIfStale(Database.commits());
+            if (commits != seen) return; // written to while it ran
+            Entry old = entries.put(key, new Entry(engine, value, weight));
+            if (old != null) rows -= old.rows;
+            rows += weight;
+            for (Iterator<Entry> it = entries.values().iterator(); rows > MAX_ROWS && it.hasNext(); ) {
+                rows -= it.next().rows;
+                it.remove();
+            }
+        }
+
+        private void invalidateIfStale(long current) {
+            if (current == commits) return;
+            clear();
+            commits = current;
+        }
+    }
+
+    // ===== Result table =====
+    /**
+     * Table model that either shows a fixed list of rows or acts as a virtual view over a whole search
+     * result. In virtual mode only the row count is known up front; rows are fetched from the index in
+     * windows of {@link #WINDOW} as the table asks for them, formatted off the EDT, and kept in an LRU
+     * cache of {@link #CACHED_WINDOWS} windows. Rows not loaded yet render as placeholders.
+     */
+    static class ResultTableModel extends AbstractTableModel {
+        private static final long serialVersionUID = 1L;
+        static final String[] COLUMNS = {"ID","Name","Ext","Size","Last Modified","Indexed At","Path"};
+        static final int WINDOW = 200;
+        static final int CACHED_WINDOWS = 64;
+        static final int RETRY_MILLIS = 250; // before a window whose load failed is requested again
+        private static final Object[] PLACEHOLDER = {"", "…", "", "", "", "", ""};
+
+        /** Where windows are read from: the database, or the in-memory index when it is on. */
+        interface Source { SearchIndex get() throws SQLException; }
+
+        private final Source source;
+        private final ExecutorService loader = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "table-loader");
+            t.setDaemon(true);
+            return t;
+        });
+
+        // All state below is confined to the EDT
+        private List<Object[]> fixed = new ArrayList<>();
+        private SearchFilter filter; // non-null in virtual mode
+        private int rowCount;
+        private int generation;
+        private final Map<Integer, Object[][]> windows = new LinkedHashMap<Integer, Object[][]>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<Integer, Object[][]> eldest) {
+                return size() > CACHED_WINDOWS;
+            }
+        };
+        private final Map<Integer, Database.Cursor> windowEnds = new HashMap<>();
+        private final Set<Integer> loading = new HashSet<>();
+
+        ResultTableModel(Source source) { this.source = source; }
+
+        void showRows(List<FileRecord> rows) {
+            reset();
+            for (FileRecord r : rows) fixed.add(r.toTableRow());
+            rowCount = fixed.size();
+            fireTableDataChanged();
+        }
+
+        void showLazy(SearchFilter f, long total) {
+            reset();
+            filter = f;
+            rowCount = (int) Math.min(total, Integer.MAX_VALUE);
+            fireTableDataChanged();
+        }
+
+        /** Corrects the row count of a virtual view of {@code f}, e.g. once its estimated total is known exactly. */
+        void resize(SearchFilter f, long total) {
+            if (!f.equals(filter)) return;
+            int old = rowCount;
+            rowCount = (int) Math.min(total, Integer.MAX_VALUE);
+            if (rowCount > old) fireTableRowsInserted(old, rowCount - 1);
+            else if (rowCount < old) fireTableRowsDeleted(rowCount, old - 1);
+        }
+
+        private void reset() {
+            generation++;
+            fixed = new ArrayList<>();
+            filter = null;
+            windows.clear();
+            windowEnds.clear();
+            loading.clear();
+        }
+
+        @Override public int getRowCount() { return rowCount; }
+
+        @Override public int getColumnCount() { return COLUMNS.length; }
+
+        @Override public String getColumnName(int column) { return COLUMNS[column]; }
+
+        @Override public Object getValueAt(int row, int column) {
+            if (filter == null) return fixed.get(row)[column];
+            int w = row / WINDOW;
+            Object[][] rows = windows.get(w);
+            if (rows == null) {
+                load(w);
+                return PLACEHOLDER[column];
             }
+            int i = row % WINDOW;
+            return i < rows.length ? rows[i][column] : PLACEHOLDER[column];
+        }
+
+        private void load(int w) {
+            if (!loading.add(w)) return;
+            int gen = generation;
+            SearchFilter f = filter;
+            // Seek from the previous window's last row when we have it; otherwise fall back to an offset
+            Database.Cursor after = w == 0 ? null : windowEnds.get(w - 1);
+            loader.execute(() -> {
+                try {
+                    SearchIndex db = source.get();
+                    Database.Page page = (w == 0 || after != null)
+                            ? db.search(f, WINDOW, after)
+                            : db.searchAt(f, WINDOW, (long) w * WINDOW);
+                    Object[][] rows = new Object[page.rows.size()][];
+                    for (int i = 0; i < rows.length; i++) rows[i] = page.rows.get(i).toTableRow();
+                    SwingUtilities.invokeLater(() -> {
+                        if (gen != generation) return;
+                        loading.remove(w);
+                        windows.put(w, rows);
+                        if (page.next != null) windowEnds.put(w, page.next);
+                        windowUpdated(w);
+                    });
+                } catch (Exception ex) {
+                    // e.g. cancelled by a newer search. Repainting the window's rows asks for them again;
+                    // the delay keeps a lasting failure from becoming a busy retry loop.
+                    SwingUtilities.invokeLater(() -> {
+                        if (gen != generation) return;
+                        loading.remove(w);
+                        Timer retry = new Timer(RETRY_MILLIS, e -> { if (gen == generation) windowUpdated(w); });
+                        retry.setRepeats(false);
+                        retry.start();
+                    });
+                }
+            });
+        }
+
+        private void windowUpdated(int w) {
+            int first = w * WINDOW;
+            int last = Math.min(rowCount, first + WINDOW) - 1;
+            if (first <= last) fireTableRowsUpdated(first, last);
         }
     }
 
     // ===== GUI =====
     private JTextField txtFolder;
     private JCheckBox chkHash;
+    private JCheckBox chkIncremental;
+    private JCheckBox chkWatch;
+    private JSpinner spnWalkers;
+    private JCheckBox chkVirtual;
     private JButton btnScan;
+    private volatile Indexer indexer; // current or last scan, for the metrics view
 
     private JTextField txtName;
     private JTextField txtExt;
@@ -300,19 +3317,44 @@ public class FileSearchIndexer extends JFrame {
     private JTextField txtDateTo;
     private JComboBox<String> cmbSort;
     private JCheckBox chkDesc;
+    private JCheckBox chkAll;
+    private JCheckBox chkMemory;
     private JSpinner spnLimit;
     private JButton btnPrev, btnNext, btnSearch, btnRecent, btnDupes;
     private JLabel lblPage;
 
     private JTable table;
-    private DefaultTableModel model;
+    private ResultTableModel model;
     private JLabel status;
 
     private int page = 0;
+    private final List<Database.Cursor> pageStarts = new ArrayList<>(); // cursor that opens each visited page
+    private Database.Cursor nextPage;
+    private boolean pagingDupes; // Prev/Next walk duplicate groups instead of search results
+    private Watcher watcher;
+    private Database readDb;
+    private Database countDb; // second reader, for exact counts only
+    private volatile MemoryIndex memIndex; // non-null while the in-memory engine is on and loaded
+    private volatile long memCommits; // Database.commits() when memIndex was read
+    private final AtomicBoolean memLoading = new AtomicBoolean();
+    private volatile boolean memReport; // the running load was asked for by the user: report it when done
+    private final Timer memReloadTimer = new Timer(MEMORY_RELOAD_QUIET_MS, e -> reloadWhenQuiet());
+    private long memReloadSeen; // Database.commits() when memReloadTimer was last (re)started
+    private final SearchScheduler searches = new SearchScheduler(this::reader, this::countReader);
+    private final ResultCache results = new ResultCache();
+    private Timer searchTimer;
 
     public FileSearchIndexer() {
         super("File Search Indexer (Java + SQLite)");
         setDefaultCloseOperation(EXIT_ON_CLOSE);
+        addWindowListener(new WindowAdapter() {
+            @Override public void windowClosing(WindowEvent e) {
+                synchronized (FileSearchIndexer.this) {
+                    if (readDb != null) readDb.close();
+                    if (countDb != null) countDb.close();
+                }
+            }
+        });
         setSize(1100, 720);
         setLocationRelativeTo(null);
         setLayout(new BorderLayout());
@@ -321,8 +3363,136 @@ public class FileSearchIndexer extends JFrame {
         add(buildCenterPanel(), BorderLayout.CENTER);
         add(buildStatusPanel(), BorderLayout.SOUTH);
 
-        // Warm-up DB
+        // Warm-up DB: open the shared reader (and run schema setup) off the EDT
         try { Class.forName("org.sqlite.JDBC"); } catch (Exception ignored) {}
+        new Thread(() -> { try { reader(); } catch (SQLException ignored) { } }, "db-warmup").start();
+        if (chkMemory.isSelected()) loadMemoryIndex();
+    }
+
+    /**
+     * The engine searches go to: the in-memory index when loaded and current, else the given database.
+     * Once anything in this process has committed since the index was read (a scan, the watcher), it
+     * is stale: searches go to SQLite until a reload replaces it. The reload waits until commits have
+     * stopped for {@link #MEMORY_RELOAD_QUIET_MS}, so a watcher batch of several commits costs one.
+     */
+    private SearchIndex index(Database db) {
+        MemoryIndex m = memIndex;
+        if (m == null) return db;
+        if (memCommits != Database.commits()) {
+            SwingUtilities.invokeLater(() -> {
+                if (memReloadTimer.isRunning()) return;
+                memReloadSeen = Database.commits();
+                memReloadTimer.start();
+            });
+            return db;
+        }
+        return m;
+    }
+
+    // Fired by memReloadTimer on the EDT: waits again while commits keep coming, else reloads
+    private void reloadWhenQuiet() {
+        memReloadTimer.stop();
+        long commits = Database.commits();
+        if (commits != memReloadSeen) {
+            memReloadSeen = commits;
+            memReloadTimer.start();
+        } else if (btnScan.isEnabled()) { // a running scan reloads when it is done
+            reloadMemoryIndex();
+        }
+    }
+
+    /** Stops searching the in-memory index and unmaps it, e.g. before its snapshot is rewritten. */
+    private void closeMemoryIndex() {
+        MemoryIndex m = memIndex;
+        memIndex = null;
+        if (m != null) m.close();
+    }
+
+    /**
+     * Switches searches to the in-memory index in the background; SQLite answers meanwhile. Maps the
+     * snapshot if it matches the database, otherwise rebuilds it from the database first, after
+     * closing {@code old}, which may still map the file.
+     */
+    private static MemoryIndex openSnapshot(Database db, MemoryIndex old) throws SQLException, IOException {
+        Path file = Paths.get(SNAPSHOT_FILE);
+        if (Files.exists(file)) {
+            try {
+                MemoryIndex mapped = MemoryIndex.open(file);
+                if (mapped.stamp() == db.stamp()) return mapped;
+                mapped.close();
+            } catch (IOException ignored) {
+                // unreadable or from another version: rebuilt below
+            }
+        }
+        if (old != null) old.close(); // stale, so index() no longer hands it out
+        try {
+            MemoryIndex.writeSnapshot(db, file);
+            return MemoryIndex.open(file);
+        } catch (IOException e) {
+            return MemoryIndex.load(db); // e.g. the old snapshot is still mapped and cannot be replaced; stay on the heap
+        }
+    }
+
+    private void loadMemoryIndex() {
+        status.setText("Loading in-memory index…");
+        memReport = true;
+        reloadMemoryIndex();
+    }
+
+    /**
+     * Replaces a stale in-memory index in the background, without touching the status line. At most
+     * one load runs: a request while one is running joins it, and a load that finishes already stale
+     * is caught by the next {@link #index} call.
+     */
+    private void reloadMemoryIndex() {
+        if (!memLoading.compareAndSet(false, true)) return;
+        new Thread(() -> {
+            // A connection of its own: the export reads every row, and the shared reader would hold
+            // every search and table window for as long
+            try (Database db = Database.openReader()) {
+                long started = System.currentTimeMillis();
+                long commits = Database.commits(); // before reading, so a write during the load counts as newer
+                MemoryIndex old = memIndex;
+                MemoryIndex m = openSnapshot(db, memCommits != commits ? old : null);
+                long dur = System.currentTimeMillis() - started;
+                SwingUtilities.invokeLater(() -> {
+                    if (!chkMemory.isSelected() || !btnScan.isEnabled()) { // switched off, or a scan started, meanwhile
+                        m.close(); // a scan loads again when it is done
+                        return;
+                    }
+                    MemoryIndex replaced = memIndex;
+                    memCommits = commits; // before memIndex, which index() reads first
+                    memIndex = m;
+                    if (replaced != null && replaced != m) replaced.close();
+                    if (memReport) status.setText("In-memory index: " + m.size() + " files loaded in " + dur + " ms");
+                    memReport = false;
+                });
+            } catch (SQLException | IOException | RuntimeException | OutOfMemoryError ex) {
+                SwingUtilities.invokeLater(() -> {
+                    chkMemory.setSelected(false);
+                    closeMemoryIndex();
+                    memReport = false;
+                    JOptionPane.showMessageDialog(this, "Cannot load in-memory index: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                });
+            } finally {
+                memLoading.set(false);
+            }
+        }, "memory-loader").start();
+    }
+
+    /** The engine searches go to right now, without opening the reader; null before the first search. */
+    private synchronized SearchIndex currentIndex() { return index(readDb); }
+
+    /** Shared read connection for searches; opened once, closed with the window. */
+    private synchronized Database reader() throws SQLException {
+        if (readDb == null) readDb = Database.openReader();
+        return readDb;
+    }
+
+    /** Read connection for exact counts, so they never hold the shared reader; opened on first use. */
+    private synchronized Database countReader() throws SQLException {
+        if (countDb == null) countDb = Database.openReader();
+        return countDb;
     }
 
     private JPanel buildTopPanel() {
@@ -335,24 +3505,50 @@ public class FileSearchIndexer extends JFrame {
         JButton btnBrowse = new JButton("Browse…");
         btnBrowse.addActionListener(e -> onBrowse());
         chkHash = new JCheckBox("Compute SHA-256 (slower, needed for accurate duplicates)");
+        chkHash.setToolTipText("Only files that share a size and a head/tail hash with another file are fully hashed");
+        chkIncremental = new JCheckBox("Skip unchanged", true);
+        chkIncremental.setToolTipText("Only re-index files whose size or modification time changed since the last scan");
+        chkWatch = new JCheckBox("Watch for changes");
+        chkWatch.setToolTipText("Keep the index up to date after the scan until the next scan or until unchecked");
+        chkWatch.addActionListener(e -> { if (!chkWatch.isSelected()) stopWatcher(); });
+        spnWalkers = new JSpinner(new SpinnerNumberModel(Indexer.DEFAULT_WALK_PARALLELISM, 1, 256, 1));
+        spnWalkers.setToolTipText("Directories listed in parallel; raise for network drives");
+        chkVirtual = new JCheckBox("Virtual threads");
+        chkVirtual.setToolTipText("Hash duplicate candidates on one virtual thread per file; suits NFS/SMB where reads block on latency (Java 21+)");
+        chkVirtual.setEnabled(Indexer.virtualThreadsSupported());
         btnScan = new JButton("Scan & Index");
         btnScan.addActionListener(this::onScan);
+        JButton btnMetrics = new JButton("Metrics…");
+        btnMetrics.setToolTipText("Counters and latency histograms of the running or last scan");
+        btnMetrics.addActionListener(e -> showMetrics());
         scan.add(new JLabel("Folder:"));
         scan.add(txtFolder);
         scan.add(btnBrowse);
         scan.add(chkHash);
+        scan.add(chkIncremental);
+        scan.add(chkWatch);
+        scan.add(new JLabel("Walkers:"));
+        scan.add(spnWalkers);
+        scan.add(chkVirtual);
         scan.add(btnScan);
+        scan.add(btnMetrics);
 
         // Search panel
         JPanel search = new JPanel(new FlowLayout(FlowLayout.LEFT));
         txtName = new JTextField(12);
-        txtExt = new JTextField(6);
+        txtExt = new JTextField(8);
+        txtExt.setToolTipText("One or more extensions, e.g. jpg, png heic");
         txtSizeMin = new JTextField(6);
         txtSizeMax = new JTextField(6);
         txtDateFrom = new JTextField(9);
         txtDateTo = new JTextField(9);
         cmbSort = new JComboBox<>(new String[]{"name","extension","size","last_modified","indexed_at"});
         chkDesc = new JCheckBox("Desc");
+        chkAll = new JCheckBox("Scroll all");
+        chkAll.setToolTipText("Show the whole result in one scrollable table, loading rows as they come into view");
+        chkMemory = new JCheckBox("In-memory", Boolean.getBoolean("indexer.memoryIndex"));
+        chkMemory.setToolTipText("Search a columnar copy of the index held in RAM; reloaded after each scan and once watched changes settle");
+        chkMemory.addActionListener(e -> { if (chkMemory.isSelected()) loadMemoryIndex(); else closeMemoryIndex(); });
         spnLimit = new JSpinner(new SpinnerNumberModel(50, 10, 5000, 10));
         btnPrev = new JButton("Prev");
         btnNext = new JButton("Next");
@@ -361,9 +3557,17 @@ public class FileSearchIndexer extends JFrame {
         btnDupes = new JButton("Find duplicates");
         lblPage = new JLabel("Page 1");
 
-        btnPrev.addActionListener(e -> { if (page>0){ page--; doSearch(); } });
-        btnNext.addActionListener(e -> { page++; doSearch(); });
-        btnSearch.addActionListener(e -> { page=0; doSearch(); });
+        btnPrev.addActionListener(e -> { if (page>0){ page--; showPage(); } });
+        btnNext.addActionListener(e -> {
+            if (nextPage == null) return;
+            page++;
+            if (pageStarts.size() <= page) pageStarts.add(nextPage); else pageStarts.set(page, nextPage);
+            showPage();
+        });
+        btnSearch.addActionListener(e -> { pagingDupes = false; resetPaging(); doSearch(); });
+        // Cursors are only valid for the sort they were taken from
+        cmbSort.addActionListener(e -> resetPaging());
+        chkDesc.addActionListener(e -> resetPaging());
         btnRecent.addActionListener(e -> showRecent());
         btnDupes.addActionListener(e -> showDupes());
 
@@ -374,7 +3578,7 @@ public class FileSearchIndexer extends JFrame {
         search.add(new JLabel("Date from:")); search.add(txtDateFrom);
         search.add(new JLabel("to:")); search.add(txtDateTo);
         search.add(new JLabel("Sort:")); search.add(cmbSort); search.add(chkDesc);
-        search.add(new JLabel("Limit:")); search.add(spnLimit);
+        search.add(new JLabel("Limit:")); search.add(spnLimit); search.add(chkAll); search.add(chkMemory);
         search.add(btnPrev); search.add(btnNext); search.add(lblPage);
         search.add(btnSearch); search.add(btnRecent); search.add(btnDupes);
 
@@ -396,15 +3600,16 @@ public class FileSearchIndexer extends JFrame {
     }
 
     private void debounceSearch() {
-        // simple debounce using timer
-        Timer t = new Timer(300, e -> { page=0; doSearch(); });
-        t.setRepeats(false); t.start();
+        // one timer, restarted on every edit, so a burst of typing fires a single search
+        if (searchTimer == null) {
+            searchTimer = new Timer(300, e -> { pagingDupes = false; resetPaging(); doSearch(); });
+            searchTimer.setRepeats(false);
+        }
+        searchTimer.restart();
     }
 
     private JScrollPane buildCenterPanel() {
-        model = new DefaultTableModel(new Object[]{"ID","Name","Ext","Size","Last Modified","Indexed At","Path"}, 0) {
-            @Override public boolean isCellEditable(int row, int column) { return false; }
-        };
+        model = new ResultTableModel(() -> index(reader()));
         table = new JTable(model);
         table.setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
         table.getColumnModel().getColumn(0).setPreferredWidth(60);
@@ -438,74 +3643,216 @@ public class FileSearchIndexer extends JFrame {
         Path root = Paths.get(folder);
         if (!Files.isDirectory(root)) { JOptionPane.showMessageDialog(this, "Not a directory."); return; }
         btnScan.setEnabled(false);
+        Watcher stopping = stopWatcher();
         status.setText("Starting scan…");
+        boolean hash = chkHash.isSelected();
+        boolean incremental = chkIncremental.isSelected();
+        int walkers = (Integer) spnWalkers.getValue();
+        boolean virtual = chkVirtual.isSelected();
+        Path snapshot = chkMemory.isSelected() ? Paths.get(SNAPSHOT_FILE) : null; // only the in-memory engine reads it
+        closeMemoryIndex(); // stale after the first batch anyway, and its mapping would keep the scan from replacing the file
         new Thread(() -> {
             try (Database db = new Database()) {
-                new Indexer(db, chkHash.isSelected(), status).scan(root);
+                if (stopping != null) stopping.join(); // a batch it is still applying must not interleave with the scan
+                Indexer ix = new Indexer(db, hash, incremental, status).walkParallelism(walkers).virtualThreads(virtual)
+                        .snapshot(snapshot);
+                indexer = ix;
+                ix.scan(root);
+                try {
+                    Files.write(Paths.get(METRICS_FILE), ix.metrics().toJson().getBytes(StandardCharsets.UTF_8));
+                } catch (IOException ignored) {
+                    // the dump is for external tools; the scan itself succeeded
+                }
             } catch (Exception ex) {
                 SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, "Error: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE));
             } finally {
-                SwingUtilities.invokeLater(() -> btnScan.setEnabled(true));
+                SwingUtilities.invokeLater(() -> {
+                    btnScan.setEnabled(true);
+                    if (chkMemory.isSelected()) loadMemoryIndex();
+                    if (chkWatch.isSelected()) startWatcher(root, hash, virtual);
+                });
             }
         }, "scan-thread").start();
     }
 
+    /** Shows the scan metrics, refreshed every second while the dialog is open. */
+    private void showMetrics() {
+        Indexer ix = indexer;
+        if (ix == null) { JOptionPane.showMessageDialog(this, "No scan has run yet."); return; }
+        JTextArea text = new JTextArea(ix.metrics().summary(), 14, 64);
+        text.setEditable(false);
+        text.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        JButton copy = new JButton("Copy JSON");
+        copy.addActionListener(e -> Toolkit.getDefaultToolkit().getSystemClipboard()
+                .setContents(new StringSelection(ix.metrics().toJson()), null));
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.add(new JScrollPane(text), BorderLayout.CENTER);
+        panel.add(copy, BorderLayout.SOUTH);
+        JDialog dialog = new JDialog(this, "Scan metrics", false);
+        dialog.add(panel);
+        dialog.pack();
+        dialog.setLocationRelativeTo(this);
+        Timer refresh = new Timer(1000, e -> text.setText(ix.metrics().summary()));
+        dialog.addWindowListener(new WindowAdapter() {
+            @Override public void windowClosed(WindowEvent e) { refresh.stop(); }
+        });
+        dialog.setDefaultCloseOperation(JDialog.DISPOSE_ON_CLOSE);
+        refresh.start();
+        dialog.setVisible(true);
+    }
+
+    private void startWatcher(Path root, boolean hash, boolean virtual) {
+        try {
+            watcher = new Watcher(root, hash, virtual, status);
+            watcher.start();
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(this, "Cannot watch folder: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    /**
+     * Stops the watcher, if any, and returns it so the caller can wait for it to finish. The field
+     * keeps the stopped watcher until the next one starts, so a scan right after unchecking Watch
+     * still waits for it.
+     */
+    private Watcher stopWatcher() {
+        Watcher w = watcher;
+        if (w != null) w.close();
+        return w;
+    }
+
+    private void resetPaging() {
+        page = 0;
+        pageStarts.clear();
+        pageStarts.add(null);
+        nextPage = null;
+    }
+
+    private void showPage() {
+        if (pagingDupes) loadDupes(); else doSearch();
+    }
+
     private void doSearch() {
         int limit = (Integer) spnLimit.getValue();
-        int offset = page * limit;
-        lblPage.setText("Page " + (page+1));
+        if (pageStarts.isEmpty()) resetPaging();
+        Database.Cursor after = pageStarts.get(page);
+        SearchFilter filter;
+        try {
+            filter = currentFilter();
+        } catch (IllegalArgumentException ex) {
+            JOptionPane.showMessageDialog(this, "Search error: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
         status.setText("Searching…");
-        new Thread(() -> {
-            try (Database db = new Database()) {
-                List<FileRecord> list = db.search(
-                        emptyToNull(txtName.getText()),
-                        normalizeExt(txtExt.getText()),
-                        parseLong(txtSizeMin.getText()),
-                        parseLong(txtSizeMax.getText()),
-                        parseDate(txtDateFrom.getText()),
-                        parseDate(txtDateTo.getText()),
-                        (String) cmbSort.getSelectedItem(),
-                        chkDesc.isSelected(),
-                        limit,
-                        offset
-                );
-                SwingUtilities.invokeLater(() -> fillTable(list));
-                status.setText("Results: " + list.size());
-            } catch (Exception ex) {
-                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, "Search error: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE));
-            }
-        }, "search-thread").start();
+        if (chkAll.isSelected()) {
+            lblPage.setText("All");
+            btnPrev.setEnabled(false);
+            btnNext.setEnabled(false);
+            searches.submit(
+                    db -> results.count(index(db), filter),
+                    total -> {
+                        model.showLazy(filter, total.value);
+                        status.setText("Results: " + total);
+                        if (total.exact) return;
+                        // Show the estimate at once and fix the scrollbar when the exact count arrives
+                        searches.exact(db -> index(db).count(filter), exact -> {
+                            model.resize(filter, exact);
+                            status.setText("Results: " + String.format(Locale.US, "%,d", exact));
+                        });
+                    },
+                    ex -> JOptionPane.showMessageDialog(this, "Search error: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE));
+            return;
+        }
+        lblPage.setText("Page " + (page+1));
+        btnPrev.setEnabled(page > 0);
+        Database.Page cached = results.peek(currentIndex(), filter, limit, after);
+        if (cached != null) {
+            searches.supersede(); // an older search still in flight must not replace this page
+            showSearchPage(filter, limit, cached);
+            return;
+        }
+        searches.submit(ResultCache.key(filter, after, limit),
+                db -> results.search(index(db), filter, limit, after),
+                result -> showSearchPage(filter, limit, result),
+                ex -> JOptionPane.showMessageDialog(this, "Search error: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE));
+    }
+
+    private void showSearchPage(SearchFilter filter, int limit, Database.Page result) {
+        nextPage = result.next;
+        btnNext.setEnabled(result.next != null);
+        fillTable(result.rows);
+        status.setText("Results: " + result.rows.size());
+        // Fetch the pages Next and Prev would open into the result cache, so either click renders at once
+        Database.Cursor next = result.next;
+        if (next != null) searches.prefetch(ResultCache.key(filter, next, limit), db -> results.search(index(db), filter, limit, next));
+        if (page > 0) {
+            Database.Cursor prev = pageStarts.get(page - 1);
+            searches.prefetch(ResultCache.key(filter, prev, limit), db -> results.search(index(db), filter, limit, prev));
+        }
+        // The total comes last so it never delays a page; it is cached per filter like the pages
+        Database.Count total = results.peekCount(currentIndex(), filter);
+        if (total != null) showTotal(limit, result.rows.size(), total);
+        else searches.background(db -> results.count(index(db), filter), count -> showTotal(limit, result.rows.size(), count));
+    }
+
+    private void showTotal(int limit, int shown, Database.Count total) {
+        long pages = (total.value + limit - 1) / limit;
+        // an estimate may fall short of the pages already seen
+        pages = Math.max(pages, page + (nextPage != null ? 2 : 1));
+        lblPage.setText("Page " + (page + 1) + " of " + (total.exact ? "" : "≈") + pages);
+        status.setText("Results: " + shown + " of " + total);
+    }
+
+    private SearchFilter currentFilter() {
+        return new SearchFilter(
+                txtName.getText(),
+                txtExt.getText(),
+                parseLong(txtSizeMin.getText()),
+                parseLong(txtSizeMax.getText()),
+                parseDate(txtDateFrom.getText()),
+                parseDate(txtDateTo.getText()),
+                (String) cmbSort.getSelectedItem(),
+                chkDesc.isSelected());
     }
 
     private void showRecent() {
         status.setText("Loading recent…");
-        new Thread(() -> {
-            try (Database db = new Database()) {
-                List<FileRecord> list = db.recent((Integer) spnLimit.getValue());
-                SwingUtilities.invokeLater(() -> fillTable(list));
-                status.setText("Recent loaded: " + list.size());
-            } catch (Exception ex) {
-                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, "Error: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE));
-            }
-        }, "recent-thread").start();
+        int limit = (Integer) spnLimit.getValue();
+        searches.submit(
+                db -> db.recent(limit),
+                list -> {
+                    fillTable(list);
+                    status.setText("Recent loaded: " + list.size());
+                },
+                ex -> JOptionPane.showMessageDialog(this, "Error: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE));
     }
 
     private void showDupes() {
+        pagingDupes = true;
+        resetPaging();
+        loadDupes();
+    }
+
+    private void loadDupes() {
+        int limit = (Integer) spnLimit.getValue();
+        if (pageStarts.isEmpty()) resetPaging();
+        Database.Cursor after = pageStarts.get(page);
+        lblPage.setText("Page " + (page+1));
+        btnPrev.setEnabled(page > 0);
         status.setText("Finding duplicates…\n(Tip: run scan with hashing enabled)");
-        new Thread(() -> {
-            try (Database db = new Database()) {
-                List<FileRecord> list = db.duplicates();
-                SwingUtilities.invokeLater(() -> fillTable(list));
-                status.setText("Duplicates: " + list.size());
-            } catch (Exception ex) {
-                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, "Dupes error: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE));
-            }
-        }, "dupes-thread").start();
+        searches.submit(
+                db -> db.duplicates(limit, after),
+                result -> {
+                    nextPage = result.next;
+                    btnNext.setEnabled(result.next != null);
+                    fillTable(result.rows);
+                    status.setText("Duplicates: " + result.rows.size() + " files, largest wasted space first");
+                },
+                ex -> JOptionPane.showMessageDialog(this, "Dupes error: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE));
     }
 
     private void fillTable(List<FileRecord> rows) {
-        model.setRowCount(0);
-        for (FileRecord r : rows) model.addRow(r.toTableRow());
+        model.showRows(rows);
     }
 
     // ===== Helpers =====
@@ -0,0 +1,42 @@
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of the duplicate view on a {@link SyntheticIndex}: the first page of groups as the GUI
+ * loads it, and the full {@code duplicates()} list.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DuplicatesBenchmark {
+    @Param({"100000"})
+    public int rows;
+
+    private FileSearchIndexer.Database db;
+
+    @Setup(Level.Trial)
+    public void open() throws SQLException {
+        db = FileSearchIndexer.Database.openReader(SyntheticIndex.url(rows));
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        db.close();
+    }
+
+    @Benchmark
+    public FileSearchIndexer.Database.Page firstPage() throws SQLException {
+        return db.duplicates(50, null);
+    }
+
+    @Benchmark
+    public List<FileSearchIndexer.FileRecord> all() throws SQLException {
+        return db.duplicates();
+    }
+}
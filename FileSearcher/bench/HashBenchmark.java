@@ -0,0 +1,74 @@
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the original stream-based SHA-256 (8 KB byte[] + String.format hex) with the
+ * FileChannel based {@link FileSearchIndexer.HashEngine} used by {@code Indexer.sha256}.
+ *
+ * Files are written once per trial and stay in the page cache, so this measures CPU and
+ * syscall overhead rather than disk speed. Run it as described in bench/README.md.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HashBenchmark {
+    @Param({"4096", "1048576", "67108864"})
+    public long fileSize;
+
+    private File file;
+
+    @Setup(Level.Trial)
+    public void createFile() throws IOException {
+        file = File.createTempFile("hash-bench", ".bin");
+        file.deleteOnExit();
+        Random rnd = new Random(42);
+        byte[] chunk = new byte[1 << 16];
+        try (OutputStream out = Files.newOutputStream(file.toPath())) {
+            for (long written = 0; written < fileSize; written += chunk.length) {
+                rnd.nextBytes(chunk);
+                out.write(chunk, 0, (int) Math.min(chunk.length, fileSize - written));
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFile() {
+        file.delete();
+    }
+
+    @Benchmark
+    public String legacyStream() {
+        return legacySha256(file);
+    }
+
+    @Benchmark
+    public String engine() {
+        return FileSearchIndexer.Indexer.sha256(file);
+    }
+
+    /** The hashing code Indexer.sha256 used before HashEngine, kept verbatim as the baseline. */
+    static String legacySha256(File f) {
+        try (DigestInputStream dis = new DigestInputStream(new FileInputStream(f), MessageDigest.getInstance("SHA-256"))) {
+            byte[] buf = new byte[8192];
+            while (dis.read(buf) != -1) { /* stream */ }
+            byte[] hash = dis.getMessageDigest().digest();
+            StringBuilder sb = new StringBuilder();
+            for (byte b : hash) sb.append(String.format("%02x", b));
+            return sb.toString();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
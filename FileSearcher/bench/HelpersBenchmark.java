@@ -0,0 +1,50 @@
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the formatting helpers the result table calls for every row it renders
+ * ({@code humanSize}, {@code formatTs}) and the scanner calls for every file ({@code getExtension}).
+ * Inputs rotate through a fixed pool so no single value is constant-folded or branch-predicted away.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HelpersBenchmark {
+    static final int POOL = 1024; // power of two, indexed with & (POOL - 1)
+
+    private final long[] sizes = new long[POOL];
+    private final long[] times = new long[POOL];
+    private final String[] names = new String[POOL];
+    private int i;
+
+    @Setup(Level.Trial)
+    public void fill() {
+        for (int k = 0; k < POOL; k++) {
+            FileSearchIndexer.FileRecord r = SyntheticIndex.record(k, 0);
+            sizes[k] = r.size;
+            times[k] = r.lastModified;
+            names[k] = r.name;
+        }
+        new SplittableRandom(42).ints(POOL / 8, 0, POOL).forEach(k -> names[k] = names[k].toUpperCase());
+    }
+
+    @Benchmark
+    public String humanSize() {
+        return FileSearchIndexer.humanSize(sizes[i++ & (POOL - 1)]);
+    }
+
+    @Benchmark
+    public String formatTs() {
+        return FileSearchIndexer.formatTs(times[i++ & (POOL - 1)]);
+    }
+
+    @Benchmark
+    public String getExtension() {
+        return FileSearchIndexer.getExtension(names[i++ & (POOL - 1)]);
+    }
+}
@@ -0,0 +1,91 @@
+import javax.swing.JLabel;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * End-to-end {@code Indexer.scan} harness over a {@link SyntheticTree}. Each run indexes the tree
+ * into a fresh database (or, with {@code incremental=true}, rescans the one from the previous run)
+ * and prints files/sec, MB/s hashed and peak heap as one tab-separated line per run.
+ *
+ * Not a JMH benchmark: a scan is seconds to minutes of I/O, and the numbers of interest are
+ * throughput and heap high-water marks rather than per-call latency. Arguments are
+ * {@code key=value}: the {@link SyntheticTree.Spec} keys plus {@code runs}, {@code hash},
+ * {@code incremental}, {@code walkers} and {@code virtual}; hashing concurrency is the
+ * {@code -Dindexer.hashConcurrency} property.
+ * Drop the page cache between runs for cold-disk numbers; otherwise they are warm.
+ */
+public final class ScanBenchmark {
+    private ScanBenchmark() {}
+
+    public static void main(String[] args) throws IOException, SQLException {
+        SyntheticTree.Spec spec = new SyntheticTree.Spec();
+        int runs = 3, walkers = 1;
+        boolean hash = true, incremental = false, virtual = false;
+        List<String> rest = spec.parse(args);
+        for (String arg : rest) {
+            String[] kv = arg.split("=", 2);
+            String value = kv.length > 1 ? kv[1] : "true";
+            switch (kv[0]) {
+                case "runs": runs = Integer.parseInt(value); break;
+                case "hash": hash = Boolean.parseBoolean(value); break;
+                case "incremental": incremental = Boolean.parseBoolean(value); break;
+                case "walkers": walkers = Integer.parseInt(value); break;
+                case "virtual": virtual = Boolean.parseBoolean(value); break;
+                default: throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+        }
+
+        Path root = SyntheticTree.root(spec);
+        Path dir = Paths.get(System.getProperty("bench.dir", System.getProperty("java.io.tmpdir")));
+        System.out.println("# " + spec + " hash=" + hash + " incremental=" + incremental + " walkers=" + walkers +
+                " virtual=" + virtual + " hashConcurrency=" + FileSearchIndexer.HashEngine.CONCURRENCY);
+        System.out.println("run\tms\tfiles\tfiles/s\thashed\tMB hashed\tMB/s hashed\tpeak heap MB");
+        for (int run = 1; run <= runs; run++) {
+            // A new file per fresh run: Database sets up the schema only once per url and process
+            Path dbFile = dir.resolve("fsi-scan-bench-" + (incremental ? 1 : run) + ".db").toAbsolutePath();
+            if (!incremental || run == 1) deleteDatabase(dbFile);
+            System.gc();
+            resetPeakHeap();
+            long started = System.nanoTime();
+            FileSearchIndexer.Indexer indexer;
+            try (FileSearchIndexer.Database db = new FileSearchIndexer.Database("jdbc:sqlite:" + dbFile)) {
+                indexer = new FileSearchIndexer.Indexer(db, hash, incremental, new JLabel())
+                        .walkParallelism(walkers)
+                        .virtualThreads(virtual);
+                indexer.scan(root);
+            }
+            double secs = (System.nanoTime() - started) / 1e9;
+            double mb = indexer.bytesHashed() / 1048576.0;
+            System.out.println(String.format(Locale.US, "%d\t%.0f\t%d\t%.0f\t%d\t%.1f\t%.1f\t%.1f",
+                    run, secs * 1000, indexer.filesWritten(), indexer.filesWritten() / secs,
+                    indexer.filesHashed(), mb, mb / secs, peakHeap() / 1048576.0));
+        }
+    }
+
+    private static void deleteDatabase(Path db) throws IOException {
+        for (String suffix : new String[]{"", "-wal", "-shm"}) Files.deleteIfExists(Paths.get(db + suffix));
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) pool.resetPeakUsage();
+        }
+    }
+
+    // Sum of per-pool peaks: an upper bound, since the pools need not peak at the same moment
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) peak += pool.getPeakUsage().getUsed();
+        }
+        return peak;
+    }
+}
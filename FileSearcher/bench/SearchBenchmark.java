@@ -0,0 +1,107 @@
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of {@code Database.search} (keyset paging) and {@code searchAt} (OFFSET paging) on a
+ * {@link SyntheticIndex} for several filter shapes and page depths. Depth is counted in pages of
+ * {@link #PAGE}; the keyset cursor for the requested depth is walked once in setup. {@code engine}
+ * switches between SQLite, the heap-backed {@code MemoryIndex} loaded from the same database, and
+ * that index written as a snapshot and memory-mapped back. {@code count} and {@code estimateCount}
+ * time the exact and the cheap total for the same filters; page depth does not affect them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SearchBenchmark {
+    static final int PAGE = 50;
+
+    @Param({"100000"})
+    public int rows;
+
+    @Param({"none", "name", "ext", "exts", "size", "date", "name+ext+size", "exts+size"})
+    public String filter;
+
+    @Param({"0", "20", "200"})
+    public int depth;
+
+    @Param({"name", "size"})
+    public String orderBy;
+
+    @Param({"sqlite", "memory", "mapped"})
+    public String engine;
+
+    private FileSearchIndexer.Database db;
+    private FileSearchIndexer.SearchIndex index;
+    private FileSearchIndexer.SearchFilter searchFilter;
+    private FileSearchIndexer.Database.Cursor cursor;
+
+    @Setup(Level.Trial)
+    public void open() throws SQLException, IOException {
+        db = FileSearchIndexer.Database.openReader(SyntheticIndex.url(rows));
+        if (engine.equals("sqlite")) {
+            index = db;
+        } else if (engine.equals("mapped")) {
+            Path snapshot = Files.createTempFile("fsi-bench", ".snap");
+            snapshot.toFile().deleteOnExit();
+            FileSearchIndexer.MemoryIndex.writeSnapshot(db, snapshot);
+            index = FileSearchIndexer.MemoryIndex.open(snapshot);
+        } else {
+            index = FileSearchIndexer.MemoryIndex.load(db);
+        }
+        searchFilter = filter(filter, orderBy);
+        for (int page = 0; page < depth; page++) {
+            cursor = index.search(searchFilter, PAGE, cursor).next;
+            if (cursor == null) break; // fewer matches than the depth: keep measuring the last page
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        db.close();
+    }
+
+    @Benchmark
+    public FileSearchIndexer.Database.Page keyset() throws SQLException {
+        return index.search(searchFilter, PAGE, cursor);
+    }
+
+    @Benchmark
+    public FileSearchIndexer.Database.Page offset() throws SQLException {
+        return index.searchAt(searchFilter, PAGE, (long) depth * PAGE);
+    }
+
+    @Benchmark
+    public long count() throws SQLException {
+        return index.count(searchFilter);
+    }
+
+    @Benchmark
+    public FileSearchIndexer.Database.Count estimateCount() throws SQLException {
+        return index.estimateCount(searchFilter);
+    }
+
+    static FileSearchIndexer.SearchFilter filter(String shape, String orderBy) {
+        String name = null, ext = null;
+        Long minSize = null, maxSize = null, minDate = null;
+        for (String part : shape.split("\\+")) {
+            switch (part) {
+                case "none": break;
+                case "name": name = "report"; break;
+                case "ext": ext = "jpg"; break;
+                case "exts": ext = "jpg, png, pdf"; break;
+                case "size": minSize = 1L << 20; maxSize = 64L << 20; break;
+                case "date": minDate = SyntheticIndex.EPOCH_2015 + SyntheticIndex.TEN_YEARS / 2; break;
+                default: throw new IllegalArgumentException("Unknown filter: " + part);
+            }
+        }
+        return new FileSearchIndexer.SearchFilter(name, ext, minSize, maxSize, minDate, null, orderBy, false);
+    }
+}
@@ -0,0 +1,85 @@
+import java.io.File;
+import java.sql.SQLException;
+import java.util.SplittableRandom;
+
+/**
+ * Builds a deterministic synthetic {@code index.db} for the database benchmarks.
+ *
+ * Row {@code i} is always the same file: about one row in three carries a SHA-256, and some of
+ * those copy the size and hash of an earlier row so that {@code dup_groups} has real groups.
+ * The database is written once per row count to {@code bench.dir} (default: the temp dir) and
+ * reused by later runs, since filling 10M rows through the FTS and dup_groups triggers takes a while.
+ *
+ * Pre-build from the command line with {@code java ... SyntheticIndex 1000000}.
+ */
+public final class SyntheticIndex {
+    static final String[] WORDS = {"report", "photo", "invoice", "backup", "notes", "draft", "song", "video",
+            "readme", "config", "data", "image", "holiday", "budget", "scan", "thesis"};
+    static final String[] EXTENSIONS = {"txt", "jpg", "jpg", "png", "pdf", "java", "mp3", "mp4", "log", "zip", "docx", ""};
+    static final int FILES_PER_DIR = 200;
+    static final double HASHED_RATIO = 1 / 3.0;
+    static final double DUPLICATE_RATIO = 0.05; // of hashed rows
+    static final long EPOCH_2015 = 1420070400000L;
+    static final long TEN_YEARS = 10L * 365 * 24 * 3600 * 1000;
+
+    private SyntheticIndex() {}
+
+    /** JDBC url of a database with exactly {@code rows} files, generating it on first use. */
+    static String url(int rows) throws SQLException {
+        File dir = new File(System.getProperty("bench.dir", System.getProperty("java.io.tmpdir")));
+        File db = new File(dir, "fsi-bench-" + rows + ".db");
+        String url = "jdbc:sqlite:" + db.getAbsolutePath();
+        try (FileSearchIndexer.Database database = new FileSearchIndexer.Database(url)) {
+            long present = database.count(new FileSearchIndexer.SearchFilter(null, null, null, null, null, null, null, false));
+            if (present != rows) fill(database, (int) present, rows);
+        }
+        return url;
+    }
+
+    private static void fill(FileSearchIndexer.Database db, int from, int rows) throws SQLException {
+        long started = System.currentTimeMillis();
+        try (FileSearchIndexer.Database.UpsertBatch batch = db.upsertBatch()) {
+            for (int i = from; i < rows; i++) {
+                batch.add(record(i, started));
+                if (batch.pending() == 10_000) {
+                    batch.flush();
+                    if ((i + 1) % 1_000_000 == 0) System.err.println("synthetic index: " + (i + 1) + " / " + rows);
+                }
+            }
+        }
+        System.err.println("synthetic index: " + rows + " rows in " + (System.currentTimeMillis() - started) + " ms");
+    }
+
+    /** The i-th synthetic file; the same {@code i} always yields the same path, size and hash. */
+    static FileSearchIndexer.FileRecord record(int i, long indexedAt) {
+        SplittableRandom rnd = new SplittableRandom(i);
+        FileSearchIndexer.FileRecord r = new FileSearchIndexer.FileRecord();
+        String ext = EXTENSIONS[rnd.nextInt(EXTENSIONS.length)];
+        r.name = WORDS[rnd.nextInt(WORDS.length)] + "_" + i + (ext.isEmpty() ? "" : "." + ext);
+        int dir = i / FILES_PER_DIR;
+        r.path = "/bench/d" + (dir / 1000) + "/d" + dir + "/" + r.name;
+        r.extension = ext;
+        r.size = (long) Math.exp(rnd.nextDouble() * Math.log(4L << 30)); // log-uniform up to 4 GB
+        r.lastModified = EPOCH_2015 + (long) (rnd.nextDouble() * TEN_YEARS);
+        r.indexedAt = indexedAt;
+        r.scanGen = indexedAt;
+        if (rnd.nextDouble() < HASHED_RATIO) {
+            if (i > 0 && rnd.nextDouble() < DUPLICATE_RATIO) {
+                // copy an earlier row that has a hash itself; give up after a few misses
+                for (int tries = 0; tries < 8 && r.sha256 == null; tries++) {
+                    FileSearchIndexer.FileRecord original = record(rnd.nextInt(i), indexedAt);
+                    if (original.sha256 != null) {
+                        r.size = original.size;
+                        r.sha256 = original.sha256;
+                    }
+                }
+            }
+            if (r.sha256 == null) r.sha256 = String.format("%064x", (long) i);
+        }
+        return r;
+    }
+
+    public static void main(String[] args) throws SQLException {
+        for (String rows : args) System.out.println(url(Integer.parseInt(rows)));
+    }
+}
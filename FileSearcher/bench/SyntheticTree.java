@@ -0,0 +1,157 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+/**
+ * Builds a deterministic directory tree for scan benchmarks: the same {@link Spec} always yields
+ * the same directories, file names, sizes and contents.
+ *
+ * Directories form a full tree of {@code fanOut} children down to {@code depth} levels; files are
+ * spread over all of them at random. Sizes are log-uniform between {@code minSize} and
+ * {@code maxSize}. A {@code dupRatio} share of files is a byte-for-byte copy of an earlier one.
+ * Extensions are drawn from a weighted {@code exts} mix such as {@code txt:5,jpg:3,pdf:1}.
+ *
+ * A tree is written once per spec under {@code bench.dir} (default: the temp dir) and reused.
+ */
+public final class SyntheticTree {
+    /** Tree parameters, parsed from {@code key=value} arguments. */
+    static final class Spec {
+        int fanOut = 8;
+        int depth = 3;
+        int files = 20_000;
+        long minSize = 1;
+        long maxSize = 16L << 20;
+        double dupRatio = 0.1;
+        String exts = "txt:5,jpg:3,png:2,pdf:1,java:2,log:1,zip:1";
+        long seed = 42;
+
+        /** Applies {@code key=value} arguments and returns the ones it does not know. */
+        List<String> parse(String... args) {
+            List<String> rest = new ArrayList<>();
+            for (String arg : args) {
+                int eq = arg.indexOf('=');
+                String key = eq < 0 ? arg : arg.substring(0, eq), value = arg.substring(eq + 1);
+                switch (key) {
+                    case "fanOut": fanOut = Integer.parseInt(value); break;
+                    case "depth": depth = Integer.parseInt(value); break;
+                    case "files": files = Integer.parseInt(value); break;
+                    case "minSize": minSize = Long.parseLong(value); break;
+                    case "maxSize": maxSize = Long.parseLong(value); break;
+                    case "dupRatio": dupRatio = Double.parseDouble(value); break;
+                    case "exts": exts = value; break;
+                    case "seed": seed = Long.parseLong(value); break;
+                    default: rest.add(arg);
+                }
+            }
+            if (fanOut < 1 || depth < 0 || files < 0 || minSize < 1 || maxSize < minSize || dupRatio < 0 || dupRatio > 1) {
+                throw new IllegalArgumentException("Invalid tree spec: " + this);
+            }
+            return rest;
+        }
+
+        @Override public String toString() {
+            return "fanOut=" + fanOut + " depth=" + depth + " files=" + files + " minSize=" + minSize +
+                    " maxSize=" + maxSize + " dupRatio=" + dupRatio + " exts=" + exts + " seed=" + seed;
+        }
+    }
+
+    private SyntheticTree() {}
+
+    /** Root of the tree for {@code spec}, generating it on first use. */
+    static Path root(Spec spec) throws IOException {
+        Path dir = Paths.get(System.getProperty("bench.dir", System.getProperty("java.io.tmpdir")));
+        String id = Integer.toHexString(spec.toString().hashCode());
+        Path root = dir.resolve("fsi-tree-" + id);
+        Path done = dir.resolve("fsi-tree-" + id + ".done"); // outside the root so scans do not see it
+        if (Files.exists(done)) return root;
+        if (Files.exists(root)) deleteRecursively(root); // left over from an interrupted run
+        generate(spec, root);
+        Files.write(done, spec.toString().getBytes());
+        return root;
+    }
+
+    private static void generate(Spec spec, Path root) throws IOException {
+        long started = System.currentTimeMillis();
+        List<Path> dirs = new ArrayList<>();
+        dirs.add(root);
+        for (int level = 0, from = 0; level < spec.depth; level++) {
+            int to = dirs.size();
+            for (int d = from; d < to; d++) {
+                for (int c = 0; c < spec.fanOut; c++) dirs.add(dirs.get(d).resolve("d" + level + "_" + c));
+            }
+            from = to;
+        }
+        for (Path d : dirs) Files.createDirectories(d);
+
+        String[] extPool = extensionPool(spec.exts);
+        SplittableRandom rnd = new SplittableRandom(spec.seed);
+        List<Path> originals = new ArrayList<>();
+        byte[] buf = new byte[64 * 1024];
+        long bytes = 0;
+        for (int i = 0; i < spec.files; i++) {
+            String ext = extPool[rnd.nextInt(extPool.length)];
+            Path file = dirs.get(rnd.nextInt(dirs.size())).resolve("f" + i + (ext.isEmpty() ? "" : "." + ext));
+            if (!originals.isEmpty() && rnd.nextDouble() < spec.dupRatio) {
+                Path original = originals.get(rnd.nextInt(originals.size()));
+                Files.copy(original, file, StandardCopyOption.REPLACE_EXISTING);
+                bytes += Files.size(file);
+                continue;
+            }
+            long size = logUniform(rnd, spec.minSize, spec.maxSize);
+            SplittableRandom content = rnd.split();
+            try (OutputStream out = Files.newOutputStream(file)) {
+                for (long written = 0; written < size; written += buf.length) {
+                    int n = (int) Math.min(buf.length, size - written);
+                    for (int k = 0; k < n; k += 8) {
+                        long v = content.nextLong();
+                        for (int b = 0; b < 8 && k + b < n; b++, v >>>= 8) buf[k + b] = (byte) v;
+                    }
+                    out.write(buf, 0, n);
+                }
+            }
+            originals.add(file);
+            bytes += size;
+        }
+        System.err.println("synthetic tree: " + spec.files + " files, " + dirs.size() + " dirs, " +
+                (bytes >> 20) + " MB in " + (System.currentTimeMillis() - started) + " ms at " + root);
+    }
+
+    static long logUniform(SplittableRandom rnd, long min, long max) {
+        return Math.min(max, (long) Math.exp(Math.log(min) + rnd.nextDouble() * (Math.log(max) - Math.log(min))));
+    }
+
+    // "txt:5,jpg:3" -> each extension repeated by its weight; a bare name weighs 1, "-" means no extension
+    private static String[] extensionPool(String mix) {
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        for (String part : mix.split(",")) {
+            String[] kv = part.trim().split(":");
+            weights.put(kv[0].equals("-") ? "" : kv[0], kv.length > 1 ? Integer.parseInt(kv[1]) : 1);
+        }
+        List<String> pool = new ArrayList<>();
+        weights.forEach((ext, w) -> { for (int k = 0; k < w; k++) pool.add(ext); });
+        if (pool.isEmpty()) throw new IllegalArgumentException("Empty extension mix: " + mix);
+        return pool.toArray(new String[0]);
+    }
+
+    static void deleteRecursively(Path root) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(root)) { walk.forEach(paths::add); }
+        for (int i = paths.size() - 1; i >= 0; i--) Files.delete(paths.get(i));
+    }
+
+    public static void main(String[] args) throws IOException {
+        Spec spec = new Spec();
+        List<String> unknown = spec.parse(args);
+        if (!unknown.isEmpty()) throw new IllegalArgumentException("Unknown arguments: " + unknown);
+        System.out.println(root(spec));
+    }
+}
@@ -0,0 +1,55 @@
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Upsert throughput into a {@link SyntheticIndex}. Each operation rewrites an existing row with a
+ * new {@code indexedAt}, the common case of a rescan, so the database does not grow between runs.
+ * {@code single} commits every row like an ad-hoc {@code Database.upsert}; {@code batch} goes
+ * through {@code UpsertBatch} in transactions of {@link #BATCH} rows like the scan's BatchWriter.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UpsertBenchmark {
+    static final int BATCH = 1000;
+
+    @Param({"100000"})
+    public int rows;
+
+    private FileSearchIndexer.Database db;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void open() throws SQLException {
+        db = new FileSearchIndexer.Database(SyntheticIndex.url(rows));
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        db.close();
+    }
+
+    private FileSearchIndexer.FileRecord nextRecord() {
+        next = (next + 7919) % rows; // prime stride spreads writes over the table
+        return SyntheticIndex.record(next, System.currentTimeMillis());
+    }
+
+    @Benchmark
+    public void single() throws SQLException {
+        db.upsert(nextRecord());
+        db.commit();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void batch() throws SQLException {
+        try (FileSearchIndexer.Database.UpsertBatch batch = db.upsertBatch()) {
+            for (int i = 0; i < BATCH; i++) batch.add(nextRecord());
+        }
+    }
+}
@@ -0,0 +1,205 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.stream.Collectors;
+
+/**
+ * Checks {@code MemoryIndex} against a brute-force scan of the same rows: counts, keyset pages in
+ * every sort column and direction, offset pages and rebuilt paths, for random filters. The default
+ * row count is above {@code SMALL_RESULT}, so broad filters page through the sort permutations and
+ * narrow ones through the directly sorted path. Name terms mix ASCII and non-ASCII case, and every
+ * filter runs against an index with and without the trigram name index, so both folding rules
+ * (trigram and LIKE) are covered. The LIKE rule is the database's own: the pattern it binds,
+ * evaluated with SQL LIKE semantics, so terms with % and _ must match literally in both engines.
+ *
+ * Arguments are {@code key=value}: {@code rows} (default 100000), {@code filters} (default 100)
+ * and {@code seed}.
+ */
+public final class MemoryIndexTest {
+    static final String[] WORDS = {"Alpha", "beta", "GAMMA", "delta", "Ébène", "ÉBÈNE", "straße", "Ωmega", "a_b", "50%"};
+    static final String[] EXTS = {"txt", "jpg", "", "pdf", "z"};
+    static final String[] TERMS = {"al", "ALP", "mma", "éBè", "ène", "ΩME", "ωm", "a_", "_b", "zz", "1", "%", "SSE", "straSSe"};
+    static final List<String> COLUMNS = FileSearchIndexer.MemoryIndex.SORT_ORDER;
+    static final int MAX_PAGES = 5; // keyset pages walked per filter; offset pages cover the rest
+    static final Map<Long, String> DIRS = new HashMap<>();
+    static {
+        for (long d = 1; d <= 20; d++) DIRS.put(d, "/r/d" + d + "/");
+    }
+
+    private MemoryIndexTest() {}
+
+    public static void main(String[] args) {
+        int rows = 100_000, filters = 100;
+        long seed = 1;
+        for (String arg : args) {
+            String[] kv = arg.split("=", 2);
+            switch (kv[0]) {
+                case "rows": rows = Integer.parseInt(kv[1]); break;
+                case "filters": filters = Integer.parseInt(kv[1]); break;
+                case "seed": seed = Long.parseLong(kv[1]); break;
+                default: throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+        }
+        // the LIKE evaluator below does treat an unescaped % and _ as wildcards
+        assertEquals("raw LIKE a_", true, like("%a_%", "alpha.txt", '\\'));
+        assertEquals("escaped LIKE a_", false, like(FileSearchIndexer.Database.likePattern("a_"), "alpha.txt", '\\'));
+        assertEquals("escaped LIKE %", false, like(FileSearchIndexer.Database.likePattern("%"), "alpha.txt", '\\'));
+        SplittableRandom random = new SplittableRandom(seed);
+        List<FileSearchIndexer.FileRecord> all = new ArrayList<>();
+        FileSearchIndexer.MemoryIndex.Loader loader = new FileSearchIndexer.MemoryIndex.Loader(DIRS);
+        randomRows(random, rows, all, loader);
+        FileSearchIndexer.MemoryIndex trigram = loader.build(1, true), like = loader.build(1, false);
+        for (int i = 0; i < filters; i++) {
+            FileSearchIndexer.SearchFilter f = randomFilter(random);
+            int limit = 1 + random.nextInt(40);
+            check(trigram, all, f, true, limit, random);
+            check(like, all, f, false, limit, random);
+        }
+        System.out.println("ok: " + filters + " filters over " + rows + " rows");
+    }
+
+    /** Deterministic rows in {@link #DIRS}, fed to {@code sink} and appended to {@code out}; ids ascend with gaps. */
+    static void randomRows(SplittableRandom random, int n, List<FileSearchIndexer.FileRecord> out, FileSearchIndexer.Database.FileRowVisitor sink) {
+        long id = 0;
+        for (int i = 0; i < n; i++) {
+            FileSearchIndexer.FileRecord r = new FileSearchIndexer.FileRecord();
+            r.id = id += 1 + random.nextInt(3);
+            long dir = 1 + random.nextInt(20);
+            r.extension = EXTS[random.nextInt(EXTS.length)];
+            r.name = WORDS[random.nextInt(WORDS.length)] + random.nextInt(50) + (r.extension.isEmpty() ? "" : "." + r.extension);
+            r.path = DIRS.get(dir) + r.name;
+            r.size = random.nextInt(1000);
+            r.lastModified = random.nextInt(100);
+            r.indexedAt = random.nextInt(10);
+            sink.row(r.id, dir, r.name, r.extension, r.size, r.lastModified, r.indexedAt);
+            out.add(r);
+        }
+    }
+
+    static FileSearchIndexer.SearchFilter randomFilter(SplittableRandom random) {
+        String name = random.nextInt(3) == 0 ? null : TERMS[random.nextInt(TERMS.length)];
+        String ext = null;
+        switch (random.nextInt(3)) {
+            case 1: ext = EXTS[random.nextInt(EXTS.length)]; break;
+            case 2: ext = EXTS[random.nextInt(EXTS.length)] + ", ." + EXTS[random.nextInt(EXTS.length)].toUpperCase() + " nope"; break;
+            default:
+        }
+        Long minSize = random.nextBoolean() ? null : (long) random.nextInt(500);
+        Long maxSize = random.nextBoolean() ? null : (long) (300 + random.nextInt(700));
+        Long minDate = random.nextBoolean() ? null : (long) random.nextInt(50);
+        Long maxDate = random.nextInt(4) != 0 ? null : (long) (50 + random.nextInt(50));
+        return new FileSearchIndexer.SearchFilter(name, ext, minSize, maxSize, minDate, maxDate,
+                COLUMNS.get(random.nextInt(COLUMNS.size())), random.nextBoolean());
+    }
+
+    static void check(FileSearchIndexer.MemoryIndex index, List<FileSearchIndexer.FileRecord> all, FileSearchIndexer.SearchFilter f,
+                      boolean nameIndex, int limit, SplittableRandom random) {
+        List<FileSearchIndexer.FileRecord> expected = all.stream().filter(r -> matches(r, f, nameIndex)).collect(Collectors.toList());
+        Comparator<FileSearchIndexer.FileRecord> order = (a, b) -> compareKeys(key(a, f.orderBy), key(b, f.orderBy));
+        order = order.thenComparingLong(r -> r.id);
+        expected.sort(f.desc ? order.reversed() : order);
+        List<Long> ids = expected.stream().map(r -> r.id).collect(Collectors.toList());
+        String what = describe(f) + " nameIndex=" + nameIndex;
+
+        assertEquals(what + " count", (long) expected.size(), index.count(f));
+        assertEquals(what + " estimateCount", (long) expected.size(), index.estimateCount(f).value);
+
+        List<Long> got = new ArrayList<>();
+        FileSearchIndexer.Database.Cursor cursor = null;
+        for (int page = 0; page < MAX_PAGES; page++) {
+            FileSearchIndexer.Database.Page p = index.search(f, limit, cursor);
+            if (p.rows.size() > limit) throw new AssertionError(what + ": page of " + p.rows.size() + " rows, limit " + limit);
+            for (FileSearchIndexer.FileRecord r : p.rows) got.add(r.id);
+            int end = Math.min(ids.size(), got.size());
+            assertEquals(what + " keyset pages", ids.subList(0, end), got);
+            // the cursor says "more" exactly when rows past this page exist
+            assertEquals(what + " next cursor", got.size() < ids.size(), p.next != null);
+            cursor = p.next;
+            if (cursor == null) break;
+        }
+
+        int offset = ids.isEmpty() ? 0 : random.nextInt(ids.size());
+        List<FileSearchIndexer.FileRecord> at = index.searchAt(f, limit, offset).rows;
+        assertEquals(what + " offset " + offset, ids.subList(offset, Math.min(ids.size(), offset + limit)),
+                at.stream().map(r -> r.id).collect(Collectors.toList()));
+        for (int i = 0; i < at.size(); i++) assertEquals(what + " path", expected.get(offset + i).path, at.get(i).path);
+    }
+
+    // The documented semantics, written out independently of MemoryIndex.NameMatch; short terms as the database's LIKE
+    static boolean matches(FileSearchIndexer.FileRecord r, FileSearchIndexer.SearchFilter f, boolean nameIndex) {
+        if (f.name != null) {
+            boolean trigram = nameIndex && f.name.length() >= 3;
+            if (trigram ? !foldCodePoints(r.name).contains(foldCodePoints(f.name))
+                    : !like(FileSearchIndexer.Database.likePattern(f.name), r.name, '\\')) return false;
+        }
+        return (f.exts == null || f.exts.contains(r.extension))
+                && (f.minSize == null || r.size >= f.minSize) && (f.maxSize == null || r.size <= f.maxSize)
+                && (f.minDate == null || r.lastModified >= f.minDate) && (f.maxDate == null || r.lastModified <= f.maxDate);
+    }
+
+    static String foldCodePoints(String s) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < s.length(); ) {
+            int cp = s.codePointAt(i);
+            sb.appendCodePoint(Character.toLowerCase(cp));
+            i += Character.charCount(cp);
+        }
+        return sb.toString();
+    }
+
+    // SQLite's LIKE: % matches any run of characters, _ any one, esc makes the next one literal; ASCII letters fold
+    static boolean like(String pattern, String value, char esc) {
+        return like(pattern.codePoints().toArray(), 0, value.codePoints().toArray(), 0, esc);
+    }
+
+    static boolean like(int[] p, int i, int[] v, int j, char esc) {
+        for (; i < p.length; i++, j++) {
+            int c = p[i];
+            if (c == '%') {
+                for (int k = j; k <= v.length; k++) if (like(p, i + 1, v, k, esc)) return true;
+                return false;
+            }
+            if (j == v.length) return false;
+            if (c == '_') continue;
+            if (c == esc) c = p[++i];
+            if (foldAscii(c) != foldAscii(v[j])) return false;
+        }
+        return j == v.length;
+    }
+
+    static int foldAscii(int c) { return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c; }
+
+    static Object key(FileSearchIndexer.FileRecord r, String column) {
+        switch (column) {
+            case "name": return r.name;
+            case "extension": return r.extension;
+            case "size": return r.size;
+            case "last_modified": return r.lastModified;
+            default: return r.indexedAt;
+        }
+    }
+
+    // Text as SQLite's BINARY collation: unsigned UTF-8 bytes
+    static int compareKeys(Object a, Object b) {
+        if (!(a instanceof String)) return Long.compare((Long) a, (Long) b);
+        byte[] x = ((String) a).getBytes(StandardCharsets.UTF_8), y = ((String) b).getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < Math.min(x.length, y.length); i++) {
+            int c = Integer.compare(x[i] & 0xff, y[i] & 0xff);
+            if (c != 0) return c;
+        }
+        return Integer.compare(x.length, y.length);
+    }
+
+    static String describe(FileSearchIndexer.SearchFilter f) {
+        return "name=" + f.name + " exts=" + f.exts + " size=" + f.minSize + ".." + f.maxSize +
+                " date=" + f.minDate + ".." + f.maxDate + " order=" + f.orderBy + (f.desc ? " desc" : "");
+    }
+
+    static void assertEquals(String what, Object expected, Object actual) {
+        if (!expected.equals(actual)) throw new AssertionError(what + ": expected " + expected + ", got " + actual);
+    }
+}
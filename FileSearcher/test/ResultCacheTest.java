@@ -0,0 +1,109 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@code ResultCache} hits and invalidation against a stub engine that counts its calls: equal
+ * searches hit, other cursors, page sizes and engines miss, a commit empties the cache, a commit
+ * while a search runs keeps its result out, and the row budget evicts least recently used pages
+ * first. Commits are simulated by bumping {@code Database.COMMITS}, so no database is opened.
+ */
+public final class ResultCacheTest {
+    private ResultCacheTest() {}
+
+    /** Returns {@code limit} placeholder rows and a cursor; can commit in the middle of a search. */
+    static final class StubEngine implements FileSearchIndexer.SearchIndex {
+        int searches, counts;
+        boolean commitDuringSearch;
+
+        @Override public FileSearchIndexer.Database.Page search(FileSearchIndexer.SearchFilter f, int limit, FileSearchIndexer.Database.Cursor after) {
+            searches++;
+            if (commitDuringSearch) commit();
+            List<FileSearchIndexer.FileRecord> rows = new ArrayList<>();
+            for (int i = 0; i < limit; i++) rows.add(new FileSearchIndexer.FileRecord());
+            return new FileSearchIndexer.Database.Page(rows, new FileSearchIndexer.Database.Cursor("x", limit));
+        }
+
+        @Override public FileSearchIndexer.Database.Page searchAt(FileSearchIndexer.SearchFilter f, int limit, long offset) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public long count(FileSearchIndexer.SearchFilter f) { throw new UnsupportedOperationException(); }
+
+        @Override public FileSearchIndexer.Database.Count estimateCount(FileSearchIndexer.SearchFilter f) {
+            counts++;
+            return new FileSearchIndexer.Database.Count(42, false);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        FileSearchIndexer.ResultCache cache = new FileSearchIndexer.ResultCache();
+        StubEngine engine = new StubEngine(), other = new StubEngine();
+        FileSearchIndexer.SearchFilter f = new FileSearchIndexer.SearchFilter("a", "png jpg", 1L, null, null, null, "size", true);
+        FileSearchIndexer.SearchFilter same = new FileSearchIndexer.SearchFilter(" a ", ".JPG,png", 1L, null, null, null, "size", true);
+        FileSearchIndexer.Database.Cursor cursor = new FileSearchIndexer.Database.Cursor(7L, 3);
+
+        // equal filters and cursors hit; other cursors, page sizes and engines do not
+        cache.search(engine, f, 50, null);
+        cache.search(engine, same, 50, null);
+        expect("equal search hits", 1, engine.searches);
+        cache.search(engine, f, 50, cursor);
+        cache.search(engine, f, 50, new FileSearchIndexer.Database.Cursor(7L, 3));
+        expect("equal cursor hits", 2, engine.searches);
+        cache.search(engine, f, 40, null);
+        expect("other page size misses", 3, engine.searches);
+        try {
+            cache.search(engine, f, 50, null).rows.add(new FileSearchIndexer.FileRecord());
+            throw new AssertionError("cached rows are modifiable");
+        } catch (UnsupportedOperationException expected) {
+            // shared with later hits, so callers must not change them
+        }
+        if (cache.peek(other, f, 50, null) != null) throw new AssertionError("peek served another engine's page");
+        cache.search(other, f, 50, null); // one entry per search: the other engine's page replaces it
+        expect("other engine misses", 1, other.searches);
+        cache.search(engine, f, 50, null);
+        expect("replaced entry misses", 4, engine.searches);
+
+        // counts are cached beside pages and answer peekCount
+        cache.count(engine, f);
+        cache.count(engine, same);
+        expect("equal count hits", 1, engine.counts);
+        if (cache.peekCount(engine, f) == null) throw new AssertionError("peekCount missed a cached count");
+
+        // a commit empties everything
+        commit();
+        if (cache.peek(engine, f, 50, null) != null) throw new AssertionError("peek served a page from before a commit");
+        if (cache.peekCount(engine, f) != null) throw new AssertionError("peekCount served a count from before a commit");
+        cache.search(engine, f, 50, null);
+        cache.count(engine, f);
+        expect("search after commit", 5, engine.searches);
+        expect("count after commit", 2, engine.counts);
+
+        // a commit while the search runs keeps its (possibly stale) result out of the cache
+        engine.commitDuringSearch = true;
+        cache.search(engine, f, 30, null);
+        engine.commitDuringSearch = false;
+        cache.search(engine, f, 30, null);
+        expect("search after a racing commit", 7, engine.searches);
+        cache.search(engine, f, 30, null);
+        expect("search after a clean run", 7, engine.searches);
+
+        // bounded by rows: filling past MAX_ROWS drops the least recently used page first
+        commit();
+        int limit = 1000, pages = FileSearchIndexer.ResultCache.MAX_ROWS / limit;
+        StubEngine lru = new StubEngine();
+        for (int p = 0; p < pages; p++) cache.search(lru, f, limit, new FileSearchIndexer.Database.Cursor(0L, p));
+        cache.search(lru, f, limit, new FileSearchIndexer.Database.Cursor(0L, 0)); // touch the oldest
+        cache.search(lru, f, limit, new FileSearchIndexer.Database.Cursor(0L, pages)); // one page over budget
+        expect("fill", pages + 1, lru.searches);
+        if (cache.peek(lru, f, limit, new FileSearchIndexer.Database.Cursor(0L, 0)) == null) throw new AssertionError("evicted a recently used page");
+        if (cache.peek(lru, f, limit, new FileSearchIndexer.Database.Cursor(0L, 1)) != null) throw new AssertionError("kept the least recently used page");
+
+        System.out.println("ok");
+    }
+
+    static void commit() { FileSearchIndexer.Database.COMMITS.incrementAndGet(); }
+
+    static void expect(String what, int expected, int actual) {
+        if (expected != actual) throw new AssertionError(what + ": expected " + expected + " engine calls, got " + actual);
+    }
+}
@@ -0,0 +1,69 @@
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.SplittableRandom;
+
+/**
+ * {@code MemoryIndex.RowBitmap} against {@link BitSet}: random ascending row sets whose chunks sit
+ * on both sides of the array/bitmap switch ({@code ARRAY_MAX} and one more), plus empty, skipped
+ * and completely full chunks. {@code orInto} must add exactly the set to whatever the target
+ * already holds, including a target that ends in the middle of the last chunk, and
+ * {@code cardinality} must count it.
+ *
+ * Arguments are {@code key=value}: {@code sets} (default 200) and {@code seed}.
+ */
+public final class RowBitmapTest {
+    static final int CHUNK = 1 << 16;
+
+    private RowBitmapTest() {}
+
+    public static void main(String[] args) {
+        int sets = 200;
+        long seed = 1;
+        for (String arg : args) {
+            String[] kv = arg.split("=", 2);
+            switch (kv[0]) {
+                case "sets": sets = Integer.parseInt(kv[1]); break;
+                case "seed": seed = Long.parseLong(kv[1]); break;
+                default: throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+        }
+        SplittableRandom random = new SplittableRandom(seed);
+        int max = FileSearchIndexer.MemoryIndex.RowBitmap.ARRAY_MAX;
+        int[] perChunk = {0, 1, 2, max - 1, max, max + 1, 2 * max, CHUNK / 2, CHUNK};
+        for (int s = 0; s < sets; s++) {
+            int chunks = 1 + random.nextInt(6);
+            BitSet expected = new BitSet();
+            for (int c = 0; c < chunks; c++) {
+                int rows = perChunk[random.nextInt(perChunk.length)];
+                // distinct rows of this chunk, chosen uniformly
+                for (int low : random.ints(0, CHUNK).distinct().limit(rows).toArray()) expected.set(c * CHUNK + low);
+            }
+            check(expected, random);
+        }
+        System.out.println("ok: " + sets + " sets");
+    }
+
+    static void check(BitSet expected, SplittableRandom random) {
+        FileSearchIndexer.MemoryIndex.RowBitmap bitmap = new FileSearchIndexer.MemoryIndex.RowBitmap();
+        for (int row = expected.nextSetBit(0); row >= 0; row = expected.nextSetBit(row + 1)) bitmap.add(row);
+        MemoryIndexTest.assertEquals("cardinality", (long) expected.cardinality(), bitmap.cardinality());
+
+        // The index sizes its bitset to the row count, which can end anywhere past the last row
+        int n = expected.length() + random.nextInt(CHUNK);
+        long[] words = new long[(n + 63) >>> 6];
+        BitSet before = new BitSet();
+        for (int i = 0; i < n / 97; i++) before.set(random.nextInt(n));
+        long[] initial = before.toLongArray();
+        System.arraycopy(initial, 0, words, 0, initial.length);
+        bitmap.orInto(words);
+
+        BitSet union = (BitSet) before.clone();
+        union.or(expected);
+        long[] want = Arrays.copyOf(union.toLongArray(), words.length);
+        if (!Arrays.equals(want, words)) {
+            BitSet got = BitSet.valueOf(words);
+            got.xor(union);
+            throw new AssertionError("orInto differs at rows " + got + " (set of " + expected.cardinality() + ")");
+        }
+    }
+}
@@ -0,0 +1,108 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Round trip of the {@code MemoryIndex} snapshot: rows streamed through a {@code SnapshotWriter}
+ * and mapped back with {@code open} must answer random filters like a brute-force scan, in every
+ * sort order, and keep their stamp and name-index flag, and refuse queries once closed. Then two writers race to replace the same
+ * file, and after every round it must map cleanly as one of them, with no temporary files left.
+ *
+ * Arguments are {@code key=value}: {@code rows} (default 100000), {@code filters} (default 50),
+ * {@code rounds} of racing writers (default 20) and {@code seed}.
+ */
+public final class SnapshotTest {
+    private SnapshotTest() {}
+
+    public static void main(String[] args) throws Exception {
+        int rows = 100_000, filters = 50, rounds = 20;
+        long seed = 1;
+        for (String arg : args) {
+            String[] kv = arg.split("=", 2);
+            switch (kv[0]) {
+                case "rows": rows = Integer.parseInt(kv[1]); break;
+                case "filters": filters = Integer.parseInt(kv[1]); break;
+                case "rounds": rounds = Integer.parseInt(kv[1]); break;
+                case "seed": seed = Long.parseLong(kv[1]); break;
+                default: throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+        }
+        Path dir = Files.createTempDirectory("fsi-snapshot-test");
+        Path file = dir.resolve("index.snap");
+        try {
+            MemoryIndexTest.assertEquals("stamp of a missing snapshot", -1L, FileSearchIndexer.MemoryIndex.stampOf(file));
+            SplittableRandom random = new SplittableRandom(seed);
+            for (boolean nameIndex : new boolean[] {true, false}) {
+                List<FileSearchIndexer.FileRecord> all = write(file, random.split(), rows, 42, nameIndex);
+                MemoryIndexTest.assertEquals("stamp", 42L, FileSearchIndexer.MemoryIndex.stampOf(file));
+                FileSearchIndexer.MemoryIndex mapped = FileSearchIndexer.MemoryIndex.open(file);
+                MemoryIndexTest.assertEquals("rows", all.size(), mapped.size());
+                for (int i = 0; i < filters; i++) {
+                    MemoryIndexTest.check(mapped, all, MemoryIndexTest.randomFilter(random), nameIndex, 1 + random.nextInt(40), random);
+                }
+                mapped.close(); // unmapped at once: nothing is running on it
+                try {
+                    mapped.count(MemoryIndexTest.randomFilter(random));
+                    throw new AssertionError("a closed snapshot answered");
+                } catch (IllegalStateException expected) {
+                    // the next write may replace the file
+                }
+            }
+            race(file, random, rounds);
+            try (Stream<Path> left = Files.list(dir)) {
+                MemoryIndexTest.assertEquals("files left", Arrays.asList(file), left.collect(Collectors.toList()));
+            }
+        } finally {
+            try (Stream<Path> left = Files.walk(dir)) {
+                for (Path p : left.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) Files.deleteIfExists(p);
+            }
+        }
+        System.out.println("ok: " + rows + " rows, " + filters + " filters per name rule, " + rounds + " racing rounds");
+    }
+
+    static List<FileSearchIndexer.FileRecord> write(Path file, SplittableRandom random, int rows, long stamp, boolean nameIndex) throws IOException {
+        List<FileSearchIndexer.FileRecord> all = new ArrayList<>();
+        try (FileSearchIndexer.MemoryIndex.SnapshotWriter w = new FileSearchIndexer.MemoryIndex.SnapshotWriter(file, MemoryIndexTest.DIRS, stamp, nameIndex)) {
+            MemoryIndexTest.randomRows(random, rows, all, w);
+            w.finish();
+        }
+        return all;
+    }
+
+    // Two writers of different sizes replace the same file at once; whichever lands last must be whole
+    static void race(Path file, SplittableRandom random, int rounds) throws Exception {
+        for (int round = 0; round < rounds; round++) {
+            long seedA = random.nextLong(), seedB = random.nextLong();
+            List<List<FileSearchIndexer.FileRecord>> written = new ArrayList<>(Arrays.asList(null, null));
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            Thread[] writers = new Thread[2];
+            for (int w = 0; w < 2; w++) {
+                final int which = w;
+                final long seed = which == 0 ? seedA : seedB;
+                writers[w] = new Thread(() -> {
+                    try {
+                        written.set(which, write(file, new SplittableRandom(seed), 3_000 + 2_000 * which, which, true));
+                    } catch (Throwable t) {
+                        failure.set(t);
+                    }
+                });
+                writers[w].start();
+            }
+            for (Thread t : writers) t.join();
+            if (failure.get() != null) throw new AssertionError("writer failed", failure.get());
+            FileSearchIndexer.MemoryIndex mapped = FileSearchIndexer.MemoryIndex.open(file);
+            int winner = (int) FileSearchIndexer.MemoryIndex.stampOf(file);
+            List<FileSearchIndexer.FileRecord> all = written.get(winner);
+            MemoryIndexTest.assertEquals("rows of writer " + winner, all.size(), mapped.size());
+            MemoryIndexTest.check(mapped, all, MemoryIndexTest.randomFilter(random), true, 1 + random.nextInt(40), random);
+        }
+    }
+}